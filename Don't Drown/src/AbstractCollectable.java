@@ -1,4 +1,3 @@
-import processing.core.PShape;
 import processing.core.PVector;
 
 /**
@@ -11,7 +10,7 @@ public abstract class AbstractCollectable extends AbstractDrawable {
     public final PVector initPos;
     public boolean collected = false;
 
-    protected AbstractCollectable(DontDrown sketch, PShape[][] tokens, float x, float y) {
+    protected AbstractCollectable(DontDrown sketch, SpriteTable tokens, float x, float y) {
         super(sketch, tokens);
         this.pos = new PVector(x, y);
         this.initPos = pos.copy();
@@ -1,3 +1,5 @@
+import java.util.concurrent.ThreadLocalRandom;
+
 import processing.core.PShape;
 import processing.core.PVector;
 
@@ -6,69 +8,140 @@ import processing.core.PVector;
  * 
  * N.B. Implementing subclasses must have a method of token generation.
  * Token generation should use a static method, hence not being an abstract to inherit.
+ * Tokens are provided by a SpriteTable, which generates them on first request.
  */
 public abstract class AbstractDrawable {
 
     public static final int VARIANT_TOKENS = 15;
-    public static final int FRAMES_PER_STRESS_BAR_RESKETCH = 2;
+    public static final int FRAMES_PER_STRESS_BAR_RESKETCH = 2; // in ticks
+    public static final float RASTER_PADDING_MULT = 4f; // rough stroke weights of padding around rasterised tokens
 
     public static int stressIndex = 0;
 
     protected final DontDrown sketch;
     protected final StressAndTokenState state;
-    protected final int redrawOffset;
+    protected final int redrawOffset; // in ticks
 
     public PVector pos; // position
 
-    private final PShape[][] tokens;
+    private final SpriteTable tokens;
     private PShape token; // i.e. sprite or drawing (not to be confused with collectable Tokens)
     private int tokenIndex = 0;
     private int lastStressIndex = 0;
+    private float[] rasterBounds = null; // x, y, width and height relative to pos; null if never rasterised
+    private float nextResketch = -1; // the animation time at which the next variant is chosen
 
     protected abstract boolean onScreen();
 
-    protected AbstractDrawable(DontDrown sketch, PShape[][] tokens) {
+    protected AbstractDrawable(DontDrown sketch, SpriteTable tokens) {
         this.sketch = sketch;
         state = sketch.levelState;
-        redrawOffset = (int) Math.floor(sketch.random(StressAndTokenState.FRAMES_PER_RESKETCH_MIN));
+        // (thread-safe, as levels may be built off the animation thread)
+        redrawOffset = ThreadLocalRandom.current().nextInt(StressAndTokenState.FRAMES_PER_RESKETCH_MIN);
         this.tokens = tokens;
     }
 
+    /**
+     * Allows the object's tokens to be blitted from the sprite atlas when raster
+     * mode is enabled. The bounds should include the padding of rough strokes.
+     */
+    protected void setRasterBounds(float x, float y, float width, float height) {
+        rasterBounds = new float[] { x, y, width, height };
+    }
+
+    /* Padding to fit rough strokes within raster bounds */
+    protected float rasterPadding() {
+        return RASTER_PADDING_MULT * sketch.RSW_DEF;
+    }
+
+    /** Returns true if the tokens are currently being blitted from the sprite atlas. */
+    protected boolean rasterising() {
+        return rasterBounds != null && sketch.rasterSprites && sketch.spriteAtlas.supported();
+    }
+
+    /* Blits the current token if in raster mode, otherwise draws it as a shape */
+    private void drawToken() {
+        if (rasterising() && sketch.spriteAtlas.draw(token, rasterBounds, pos.x, pos.y)) {
+            return;
+        }
+        sketch.shape(token, pos.x, pos.y);
+    }
+
+    /*
+     * Whether it is time to move on to the next variant, given the ticks
+     * between resketches. Timed in ticks like the wave, so that drawings are
+     * resketched at the same rate at any frame rate
+     */
+    private boolean timeToResketch(int ticksPerResketch) {
+        float now = sketch.animationTicks();
+        // the clock changes between levels and menus, so it may jump either way
+        if (token != null && nextResketch >= 0 && now < nextResketch && now + ticksPerResketch >= nextResketch) {
+            return false;
+        }
+        // (offset, so that drawings don't resketch together)
+        nextResketch = now + ticksPerResketch - (nextResketch < 0 ? redrawOffset : 0);
+        return true;
+    }
+
+    /* Moves on to the next variant when it is time to resketch, or to the current stress's token */
+    private void chooseToken() {
+        if (timeToResketch(state.framesPerResketch)) {
+            tokenIndex = (tokenIndex + 1) % VARIANT_TOKENS;
+            token = tokens.get(stressIndex, tokenIndex);
+            lastStressIndex = stressIndex;
+        } else if (Math.abs(state.stress - lastStressIndex) > 5) {
+            token = tokens.get(stressIndex, tokenIndex);
+            lastStressIndex = stressIndex;
+        }
+    }
+
     /**
      * (Redraws and) renders an object as dictated by stress.  
      */
     protected void renderAD() {
         if (onScreen()) {
-            if (token == null
-                    || (sketch.frameCount + redrawOffset) % state.framesPerResketch == 0) {
-                tokenIndex = (tokenIndex + 1) % VARIANT_TOKENS;
-                token = tokens[stressIndex][tokenIndex];
-                lastStressIndex = stressIndex;
-            } else if (Math.abs(state.stress - lastStressIndex) > 5) {
-                token = tokens[stressIndex][tokenIndex];
-                lastStressIndex = stressIndex;
-            }
+            chooseToken();
+            drawToken();
+        }
+    }
 
-            sketch.shape(token, pos.x, pos.y);
+    /**
+     * As renderAD(), for tokens whose style is disabled so that they can be
+     * coloured at draw time, e.g. from a stress colour LUT rather than having a
+     * token per colour. Each layer of the token is filled with the colour of the
+     * same index, and any further layers with the last colour. Tinted tokens
+     * are always drawn as shapes, as the sprite atlas holds them in one colour.
+     */
+    protected void renderADTinted(int[] layerColours) {
+        if (onScreen()) {
+            chooseToken();
+            for (int i = 0; i < token.getChildCount(); i++) {
+                sketch.fill(layerColours[Math.min(i, layerColours.length - 1)]);
+                sketch.shape(token.getChild(i), pos.x, pos.y);
+            }
         }
     }
 
     /**
      * Intended for the stress bar's fill, which redraws itself more frequently so that the bar fills smoothly. 
+     * The fill's extent and colour are applied at draw time by drawStressToken(). 
      */
     protected void renderADStress() {
         if (onScreen()) {
-            if (token == null
-                    || (sketch.frameCount + redrawOffset) % FRAMES_PER_STRESS_BAR_RESKETCH == 0) {
+            if (timeToResketch(FRAMES_PER_STRESS_BAR_RESKETCH)) {
                 tokenIndex = (tokenIndex + 1) % VARIANT_TOKENS;
-                int stressIndexAlt = (int) Math.max(0, (state.stress * ScoreOverlay.StressBar.STRESS_BAR_RESOLUTION));
-                token = tokens[stressIndexAlt][tokenIndex];
+                token = tokens.get((int) Math.max(0, state.stress), tokenIndex);
             }
 
-            sketch.shape(token, pos.x, pos.y);
+            drawStressToken(token);
         }
     }
 
+    /* Draws the token chosen by renderADStress() */
+    protected void drawStressToken(PShape token) {
+        sketch.shape(token, pos.x, pos.y);
+    }
+
     /**
      * Usually a wrapper for either renderAD() or renderADStress(). 
      */
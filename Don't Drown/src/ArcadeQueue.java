@@ -0,0 +1,82 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates arcade levels on a background thread while the current one is
+ * played, so that the next level is ready as soon as it is needed. Levels are
+ * only handed over once fully built.
+ *
+ * Building a level does not draw anything, as its sprite tables are only
+ * generated when first rendered, so the generator never touches the sketch's
+ * graphics.
+ */
+public class ArcadeQueue {
+
+    public static final int CAPACITY = 2; // levels generated ahead of the one being played
+    private static final long POLL_MILLIS = 100;
+
+    private final DontDrown sketch;
+    private final ArrayBlockingQueue<Level> ready = new ArrayBlockingQueue<>(CAPACITY);
+    private Thread generator = null;
+
+    public ArcadeQueue(DontDrown sketch) {
+        this.sketch = sketch;
+    }
+
+    /* Starts generating levels from a random stream of the generator's own */
+    private void start() {
+        SplittableRandom random = sketch.splitArcadeRandom();
+        generator = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    ready.put(sketch.randomLevel(random));
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "arcade-level-generator");
+        generator.setDaemon(true);
+        generator.start();
+    }
+
+    /**
+     * Returns the next arcade level, waiting for it if none are ready yet. The
+     * generator is started by the first call.
+     */
+    public Level next() {
+        if (generator == null) {
+            start();
+        }
+
+        try {
+            Level level;
+            while ((level = ready.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                if (!generator.isAlive()) {
+                    // the generator failed, so don't wait on it
+                    return sketch.randomLevel();
+                }
+            }
+            return level;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return sketch.randomLevel();
+        }
+    }
+
+    /** Stops generating levels and discards any that are ready, e.g. when leaving arcade mode. */
+    public void stop() {
+        if (generator == null) {
+            return;
+        }
+
+        generator.interrupt();
+        try {
+            generator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        generator = null;
+        ready.clear();
+    }
+}
@@ -1,69 +1,84 @@
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.List;
 
-import processing.core.PConstants;
 import processing.core.PVector;
 
 public class CollisionDetector {
 
+    /** Whether a collision check ended the level, and how. */
+    public enum Outcome {
+        NONE,
+        COMPLETED, // landed on the highest platform
+        DROWNED, // caught by the wave
+        ;
+    }
+
+    private static final float CELL_HEIGHT_MULT = 0.5f; // broadphase cell height, relative to jump height
+
     private final DontDrown sketch;
 
     public PVector pcOldPos;
-    public ArrayList<Platform> sortedPlatforms;
-    public ArrayList<Token> sortedTokens;
+    private final YBucketGrid<Platform> platformGrid;
+    private final YBucketGrid<Token> tokenGrid;
+
+    // reused broadphase query results
+    private final ArrayList<Platform> platformCandidates = new ArrayList<>();
+    private final ArrayList<Token> tokenCandidates = new ArrayList<>();
 
     public CollisionDetector(DontDrown sketch) {
         this.sketch = sketch;
         pcOldPos = sketch.pc.pos.copy();
+        platformGrid = new YBucketGrid<>(sketch.pc.jumpHeight * CELL_HEIGHT_MULT);
+        tokenGrid = new YBucketGrid<>(sketch.pc.jumpHeight * CELL_HEIGHT_MULT);
     }
 
-    /** To be called at the start of a level */
+    /** To be called at the start of a level. Builds the broadphase grids of the level's platforms and tokens. */
     public void sortLists() {
-        sortedPlatforms = new ArrayList<>(sketch.level.platforms);
-        sortedPlatforms.sort(new Comparator<Platform>() {
-
-            @Override
-            public int compare(Platform o1, Platform o2) {
-                return Math.round(o2.pos.y - o1.pos.y);
-            }
-
-        });
-
-        sortedTokens = new ArrayList<>(sketch.level.tokens);
-        sortedTokens.sort(new Comparator<Token>() {
+        platformGrid.clear();
+        tokenGrid.clear();
+        append(sketch.level.platforms, sketch.level.tokens);
+    }
 
-            @Override
-            public int compare(Token o1, Token o2) {
-                return Math.round(o2.pos.y - o1.pos.y);
-            }
+    /** Adds platforms and tokens to the grids, e.g. those of a newly generated chunk of an endless level. */
+    public void append(List<Platform> platforms, List<Token> tokens) {
+        for (int i = 0; i < platforms.size(); i++) {
+            // platforms are only landed on by their top edge
+            Platform platform = platforms.get(i);
+            platformGrid.add(platform, platform.pos.y, platform.pos.y);
+        }
 
-        });
+        // include the full range of the token's bobbing, which can start up to one bounce above its initial position
+        float halfSpan = Token.height / 2 + 2 * Token.bounceHeight;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            tokenGrid.add(token, token.initPos.y - halfSpan, token.initPos.y + halfSpan);
+        }
     }
 
-    /* Finds the horizontal position of the PC when it was at a given height */
-    private float getXAtYOverlap(PlayerCharacter pc, PVector dir, float otherY) {
-        if (dir.y != 0) {
-            if (dir.x < 0) {
-                return Math.min(pc.pos.x,
-                        pcOldPos.x + (dir.x * ((otherY - (pcOldPos.y + PlayerCharacter.diameter / 2)) / dir.y)));
-            } else {
-                return Math.max(pc.pos.x,
-                        pcOldPos.x + (dir.x * ((otherY - (pcOldPos.y + PlayerCharacter.diameter / 2)) / dir.y)));
-            }
-        } else {
-            return -1;
-            // ignore x
-        }
+    /** Drops the parts of the grids entirely below y, e.g. those of an endless level's dropped chunks. */
+    public void removeBelow(float y) {
+        platformGrid.removeBelow(y);
+        tokenGrid.removeBelow(y);
     }
 
-    private void detectPlatformCollisions(PlayerCharacter pc, PVector dir) {
+    /*
+     * Lands the PC on the first platform that its base crossed while moving from
+     * its old position to its current one
+     */
+    private void detectPlatformCollisions(PlayerCharacter pc, float dx, float dy) {
         if (pc.fallState.equals(PlayerCharacter.FallState.FALLING)
                 || pc.fallState.equals(PlayerCharacter.FallState.DROPPING)) {
-            for (Platform platform : sortedPlatforms) {
+            // only consider platforms within the vertical span swept this frame
+            platformGrid.query(pcOldPos.y, pc.pos.y + PlayerCharacter.radius, platformCandidates);
+            Platform landedOn = null;
+            for (int i = 0; i < platformCandidates.size(); i++) {
+                Platform platform = platformCandidates.get(i);
                 if (platform.pos.y < pcOldPos.y) {
                     // platform too high
-                    // cut off search
-                    break;
+                    // continue search
+                } else if (landedOn != null && platform.pos.y >= landedOn.pos.y) {
+                    // a platform that is crossed earlier has already been found
+                    // continue search
                 } else if (platform.pos.y > (pc.pos.y + PlayerCharacter.radius)) {
                     // platform too low
                     // continue search
@@ -72,17 +87,22 @@ public class CollisionDetector {
                     // continue search
                 } else {
                     // platform vertically between oldPos and pos + PlayerCharacter.radius
+                    // find how far along its path the PC's base reached the platform
+                    float t = dy > 0 ? (platform.pos.y - (pcOldPos.y + PlayerCharacter.radius)) / dy : 0;
+                    t = Math.max(0, Math.min(1, t));
+                    float xAtYOverlap = pcOldPos.x + t * dx;
+
                     // check horizontal overlap to confirm collision
-                    float xAtYOverlap = getXAtYOverlap(pc, dir, platform.pos.y);
-                    if (xAtYOverlap >= platform.pos.x && xAtYOverlap <= platform.pos.x + platform.width
-                            || pc.pos.x >= platform.pos.x && pc.pos.x <= platform.pos.x + platform.width
-                            || pcOldPos.x >= platform.pos.x && pcOldPos.x <= platform.pos.x + platform.width) {
-                        pc.land(platform);
-                        break;
+                    float left = platform.pos.x;
+                    float right = platform.pos.x + platform.width;
+                    if (xAtYOverlap >= left && xAtYOverlap <= right
+                            || pc.pos.x >= left && pc.pos.x <= right
+                            || pcOldPos.x >= left && pcOldPos.x <= right) {
+                        landedOn = platform;
                     }
                 }
-
             }
+            pc.land(landedOn);
         } else if (pc.fallState.equals(PlayerCharacter.FallState.ON_SURFACE)
                 && (pc.pos.x < pc.surface.pos.x
                         || pc.pos.x > pc.surface.pos.x + pc.surface.width)) {
@@ -90,57 +110,60 @@ public class CollisionDetector {
         }
     }
 
-    private void detectTokenCollisions(PlayerCharacter pc, PVector dir) {
+    /* Collects every token that the PC passed through while moving from its old position to its current one */
+    private void detectTokenCollisions(PlayerCharacter pc, float dx, float dy) {
         float collisionRange = PlayerCharacter.radius + Token.height / 2;
-        for (Token token : sortedTokens) {
-            if (token.pos.y + Token.height / 2 < Math.min(pcOldPos.y, pc.pos.y) - PlayerCharacter.radius) {
+        float collisionRangeSq = collisionRange * collisionRange;
+        float pathLengthSq = dx * dx + dy * dy;
+        float top = Math.min(pcOldPos.y, pc.pos.y) - PlayerCharacter.radius;
+        float bottom = Math.max(pcOldPos.y, pc.pos.y) + PlayerCharacter.radius;
+
+        // only consider tokens within the vertical span swept this frame
+        tokenGrid.query(top, bottom, tokenCandidates);
+        for (int i = 0; i < tokenCandidates.size(); i++) {
+            Token token = tokenCandidates.get(i);
+            if (token.pos.y + Token.height / 2 < top) {
                 // token too high
-                // cut off search
-                break;
+                // continue search
             } else if (token.collected) {
                 // token already collected
                 // continue search
-            } else if (token.pos.y - Token.height / 2 > Math.max(pcOldPos.y, pc.pos.y) + PlayerCharacter.radius) {
+            } else if (token.pos.y - Token.height / 2 > bottom) {
                 // token too low
                 // continue search
             } else {
-                if (PVector.dist(pcOldPos, token.pos) <= collisionRange
-                        || PVector.dist(pc.pos, token.pos) <= collisionRange) {
+                // the point along the pc's path that is closest to the token's centre
+                float toTokenX = token.pos.x - pcOldPos.x;
+                float toTokenY = token.pos.y - pcOldPos.y;
+                float t = pathLengthSq > 0 ? (toTokenX * dx + toTokenY * dy) / pathLengthSq : 0;
+                t = Math.max(0, Math.min(1, t));
+
+                float offsetX = toTokenX - t * dx;
+                float offsetY = toTokenY - t * dy;
+                if (offsetX * offsetX + offsetY * offsetY <= collisionRangeSq) {
                     sketch.levelState.collectToken(token);
-                    break;
-                } else {
-                    // the angle between the pc's path and the token's centre, from the pc's old position
-                    float theta = Math.abs(dir.heading() - PVector.angleBetween(pcOldPos, token.pos));
-
-                    float hyp = PVector.dist(pcOldPos, token.pos); 
-
-                    // the shortest distance from the pc's path to the centre of the token
-                    float x = (float) (hyp * Math.sin(theta)); 
-
-                    // the distance along the pc's path to the closest point to the token
-                    float y = (float) (hyp * Math.cos(theta)); 
-                    
-                    if (theta <= PConstants.HALF_PI && x <= collisionRange && y <= PVector.dist(pcOldPos, pc.pos)) {
-                        sketch.levelState.collectToken(token);
-                        break;
-                    }
                 }
             }
         }
     }
 
-    public void detectCollisions() {
+    /** Detects collisions for the last tick, and returns whether they ended the level. */
+    public Outcome detectCollisions() {
         PlayerCharacter pc = sketch.pc;
-        PVector dir = (pc.pos.copy().sub(pcOldPos)).normalize(); // i.e. bearing of (pc.vel from last frame + panning)
-        detectPlatformCollisions(pc, dir);
-        detectTokenCollisions(pc, dir);
-        pcOldPos = pc.pos.copy();
+        // i.e. pc.vel from the last tick
+        float dx = pc.pos.x - pcOldPos.x;
+        float dy = pc.pos.y - pcOldPos.y;
+        detectPlatformCollisions(pc, dx, dy);
+        detectTokenCollisions(pc, dx, dy);
+        pcOldPos.set(pc.pos);
 
         // check level end conditions
         if (pc.surface != null && pc.surface.equals(sketch.level.highestPlatform)) {
-            sketch.endLevel(true);
+            return Outcome.COMPLETED;
         } else if (pc.pos.y > sketch.risingWave.pos.y) {
-            sketch.endLevel(false);
+            return Outcome.DROWNED;
+        } else {
+            return Outcome.NONE;
         }
     }
 
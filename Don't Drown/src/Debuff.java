@@ -1,27 +1,94 @@
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public enum Debuff {
-    NONE("Feeling Typical", "No debuff"),
-    OVERWORKED("Overworked", "Every platform has a token"),
-    PANIC_PRONE("Panic Prone", "Stress will spike every few seconds"),
-    STRESS_MOTIVATED("Stress Motivated", "Steering is sluggish when you're not stressed enough"),
-    CANT_UNWIND("Can't Unwind", "Stress cannot reduce"),
-    TUNNEL_VISION("Tunnel Vision", "Your vision is reduced, but you won't be stressed by the wave if you can't see it"),
+    NONE("Feeling Typical", "No debuff", new DebuffRule()),
+    OVERWORKED("Overworked", "Every platform has a token", new DebuffRule() {
+        @Override
+        public boolean tokenOnEveryPlatform() {
+            return true;
+        }
+    }),
+    PANIC_PRONE("Panic Prone", "Stress will spike every few seconds", new DebuffRule() {
+        @Override
+        public float waveDistance(DontDrown sketch, StressAndTokenState state, float waveDistance) {
+            return sketch.levelTick() % 300 < 100 ? Math.min(waveDistance, state.stressIncrRange / 2) : waveDistance;
+        }
+    }),
+    STRESS_MOTIVATED("Stress Motivated", "Steering is sluggish when you're not stressed enough", new DebuffRule() {
+        @Override
+        public float thrustRating(float stress, int stressEffectThreshold) {
+            // below the threshold too
+            return stress - stressEffectThreshold;
+        }
+    }),
+    CANT_UNWIND("Can't Unwind", "Stress cannot reduce", new DebuffRule() {
+        @Override
+        public boolean canUnwind() {
+            return false;
+        }
+    }),
+    TUNNEL_VISION("Tunnel Vision", "Your vision is reduced, but you won't be stressed by the wave if you can't see it",
+            new DebuffRule() {
+                @Override
+                public float waveDistance(DontDrown sketch, StressAndTokenState state, float waveDistance) {
+                    if (sketch.risingWave.pos.y > sketch.pc.pos.y + sketch.pc.jumpHeight) {
+                        if (sketch.levelTick() < state.waveLastSeen + state.stress * 2) {
+                            // don't destress as soon as the wave is out of sight
+                            return state.stressIncrRange;
+                        } else {
+                            // destress if the wave has been out of sight long enough
+                            return Math.max(waveDistance, state.stressIncrRange * 1.5f);
+                        }
+                    } else {
+                        // when the wave is visible, the rate of stress increase is extra high
+                        state.waveLastSeen = sketch.levelTick();
+                        return waveDistance / 2f;
+                    }
+                }
+
+                @Override
+                public void renderOverlay(DontDrown sketch) {
+                    float pcScreenY = sketch.pc.pos.y + sketch.level.viewOffset();
+                    sketch.fill(0xFF000000);
+                    sketch.rect(0f, 0f, sketch.width, pcScreenY - sketch.pc.jumpHeight * 1.2f);
+                    sketch.rect(0f, pcScreenY + sketch.pc.jumpHeight, sketch.width, sketch.height);
+                }
+
+                @Override
+                public int textColour() {
+                    return 0xFFFFFFFF;
+                }
+            }),
     LACK_CONTRAST("Lacking Self-awareness",
-            "The stress bar is hidden, and the drawing quality is not stress-dependent"),
-            ;
+            "The stress bar is hidden, and the drawing quality is not stress-dependent", new DebuffRule() {
+                @Override
+                public boolean drawsStress() {
+                    return false;
+                }
 
-    private static Random rand = new Random();
+                @Override
+                public float musicRating(float stress, int stressEffectThreshold) {
+                    return 0;
+                }
+
+                @Override
+                public boolean showsStressBar() {
+                    return false;
+                }
+            }),
+            ;
 
     public final String label;
     public final String description;
+    public final DebuffRule rule;
 
-    Debuff(String label, String description) {
+    Debuff(String label, String description, DebuffRule rule) {
         this.label = label;
         this.description = description;
+        this.rule = rule;
     }
 
-    public static Debuff random() {
+    public static Debuff random(SplittableRandom rand) {
         return Debuff.values()[rand.nextInt(Debuff.values().length)];
     }
 }
@@ -0,0 +1,56 @@
+/**
+ * What a debuff changes about a level. Each Debuff has a rule that overrides
+ * the hooks it needs; the defaults are those of a level without a debuff.
+ * StressAndTokenState binds the current level's rule once, in reset(Level),
+ * so the per-frame code calls the same hooks whatever the debuff rather than
+ * testing for each one.
+ */
+public class DebuffRule {
+
+    /** The distance between the wave and the PC that stress is calculated from. */
+    public float waveDistance(DontDrown sketch, StressAndTokenState state, float waveDistance) {
+        return waveDistance;
+    }
+
+    /** Whether stress falls when the wave is far enough away. */
+    public boolean canUnwind() {
+        return true;
+    }
+
+    /** Whether drawables are drawn at the current stress. */
+    public boolean drawsStress() {
+        return true;
+    }
+
+    /**
+     * How far past the stress effect threshold the PC's thrust and friction are
+     * at a stress. Doesn't depend on the game's state, as it is tabulated.
+     */
+    public float thrustRating(float stress, int stressEffectThreshold) {
+        return Math.max(0, stress - stressEffectThreshold);
+    }
+
+    /** How far past the stress effect threshold the music's note durations are at a stress. */
+    public float musicRating(float stress, int stressEffectThreshold) {
+        return thrustRating(stress, stressEffectThreshold);
+    }
+
+    /** Draws over the level, in screen coordinates. */
+    public void renderOverlay(DontDrown sketch) {
+    }
+
+    /** Whether the stress bar is shown. */
+    public boolean showsStressBar() {
+        return true;
+    }
+
+    /** The colour of text drawn over the level. */
+    public int textColour() {
+        return 0xFF000000;
+    }
+
+    /** Whether every platform generated above the ground has a token. */
+    public boolean tokenOnEveryPlatform() {
+        return false;
+    }
+}
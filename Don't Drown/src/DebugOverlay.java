@@ -1,3 +1,5 @@
+import java.lang.management.ManagementFactory;
+
 import processing.core.PConstants;
 
 public class DebugOverlay {
@@ -7,9 +9,37 @@ public class DebugOverlay {
 
     private static final float DEBUG_TEXT_DIV = 80f;
 
+    // measures heap allocation by the simulation step, if the JVM supports it
+    private final com.sun.management.ThreadMXBean threadBean;
+    private long allocationStart;
+    private long stepAllocatedBytes = -1; // by the last simulation step
+
     public DebugOverlay(DontDrown sketch) {
         this.sketch = sketch;
         this.textSize = sketch.width / DEBUG_TEXT_DIV;
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadBean = (com.sun.management.ThreadMXBean) bean;
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threadBean = null;
+        }
+    }
+
+    /** To be called before a simulation step, to count the bytes that it allocates. */
+    public void startAllocationCount() {
+        if (threadBean != null) {
+            allocationStart = threadBean.getCurrentThreadAllocatedBytes();
+        }
+    }
+
+    /** To be called after a simulation step. Should be 0 once a level is running. */
+    public void endAllocationCount() {
+        if (threadBean != null) {
+            stepAllocatedBytes = threadBean.getCurrentThreadAllocatedBytes() - allocationStart;
+        }
     }
 
     public void render() {
@@ -18,6 +48,7 @@ public class DebugOverlay {
         sketch.textSize(textSize);
         StringBuilder content = new StringBuilder();
         content.append("fps: " + Math.round(sketch.frameRate) + "\n");
+        content.append("ready after: " + sketch.startup.readyMillis + " ms, " + sketch.startup.frames + " frames\n");
         content.append("pos: " + sketch.pc.pos + "\n");
         content.append("incr: " + sketch.pc.incr + "\n");
         content.append("maxSpeed: " + sketch.pc.maxSpeed + "\n");
@@ -35,10 +66,15 @@ public class DebugOverlay {
         content.append("moveState: " + sketch.pc.getMoveState() + "\n");
         content.append("stress: " + sketch.levelState.stress + "\n");
         content.append("framesPerResketch: " + sketch.levelState.framesPerResketch + "\n");
-        content.append("roughStrokeVariability: " + sketch.roughStrokeVariabilityRate + "\n");
-        content.append("roughStrokeShakiness: " + sketch.roughStrokeShakiness + "\n");
+        HandDrawStyle style = sketch.levelState.styleFor(sketch.levelState.stress);
+        content.append("roughStrokeVariability: " + style.roughStrokeVariabilityRate + "\n");
+        content.append("roughStrokeShakiness: " + style.roughStrokeShakiness + "\n");
         content.append("waveDistance: " + Math.abs(sketch.risingWave.pos.y - sketch.pc.pos.y) + "\n");
         content.append("stressIncrRange: " + sketch.levelState.stressIncrRange + "\n");
+        content.append("cached sprite nodes: " + SpriteTable.getCachedNodes() + "\n");
+        content.append("shared sprite shapes: " + SpriteShape.sharedCount() + "\n");
+        content.append("bytes allocated per step: " + (stepAllocatedBytes < 0 ? "n/a" : stepAllocatedBytes) + "\n");
+        content.append("recorded attempts: " + (sketch.recorder == null ? "off" : sketch.recorder.attempts()) + "\n");
 
         if (sketch.gameState.equals(DontDrown.GameState.MID_LEVEL)) {
             content.append("debuff: " + sketch.levelState.debuff + "\n");
@@ -52,7 +88,9 @@ public class DebugOverlay {
             content.append("top: " + sketch.level.top + "\n");
             content.append("topLimit: " + sketch.level.topLimit + "\n");
             content.append("highestPlatformHeight: " + sketch.level.highestPlatformHeight + "\n");
-            content.append("highestPlatform.y: " + sketch.level.highestPlatform.pos.y + "\n");
+            if (sketch.level.highestPlatform != null) {
+                content.append("highestPlatform.y: " + sketch.level.highestPlatform.pos.y + "\n");
+            }
             
         }
         
@@ -1,4 +1,4 @@
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public enum Difficulty {
     EASY(1.5f, true, 0.6f, 3, 14),
@@ -7,13 +7,11 @@ public enum Difficulty {
     VERY_HARD(3f, false, 0.1f, 3, 12),
     ;
 
-    private static Random rand = new Random();
-
     public final float heightMult;
     public final boolean hasGround;
     public final float verticality;
     public final int betweenRedHerrings;
-    public final int waveRiseTime; // seconds to reach the top of the viewport at 60fps
+    public final int waveRiseTime; // seconds to reach the top of the viewport
 
     Difficulty(float heightMult, boolean hasGround, float verticality, int betweenRedHerrings, int waveRiseTime) {
         this.heightMult = heightMult;
@@ -23,7 +21,7 @@ public enum Difficulty {
         this.waveRiseTime = waveRiseTime;
     }
 
-    public static Difficulty random() {
+    public static Difficulty random(SplittableRandom rand) {
         return Difficulty.values()[rand.nextInt(Difficulty.values().length)];
     }
 }
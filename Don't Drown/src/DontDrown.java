@@ -1,14 +1,26 @@
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
 import processing.core.PApplet;
+import processing.core.PVector;
 import processing.event.MouseEvent;
 
 public class DontDrown extends Sketcher {
 
-    private static final float LOADING_TEXT_DIV = 5f;
     private static final int SCROLL_DIV = 20;
     private static final int EXTENSION_TIME_MULT = 3; // the number of jumps for which the extension lasts
     private static final int REPERCUSSION_TIME_MULT = 3; // the number of jumps for which the repercussion lasts
 
+    // sprite buckets generated at startup, i.e. those up to the stress at which tokens get sketchier
+    public static final int WARM_UP_BUCKETS = StressAndTokenState.DEFAULT_STRESS_EFFECT_THRESHOLD
+            / SpriteTable.DEFAULT_ROWS_PER_BUCKET + 1;
+    public static final int TICKS_PER_SECOND = 60; // simulation rate, independent of the frame rate
+    private static final float NANOS_PER_TICK = 1e9f / TICKS_PER_SECOND;
+    private static final int MAX_TICKS_PER_FRAME = 5; // beyond which the game slows rather than skipping more frames
+
     public static final String FONT_PATH = "sf-grunge-sans.bold.ttf";
+    public static final String SPRITE_CACHE_PATH = "sprites.cache";
     public static final char BULLET_POINT = 149;
 
     public enum GameState {
@@ -21,30 +33,51 @@ public class DontDrown extends Sketcher {
 
     public GameState gameState = GameState.PRE_STARTUP;
     public boolean arcadeMode = false;
+    public ArcadeQueue arcadeQueue; // generates arcade levels in the background
+    public StartupLoader startup; // runs startup over several frames; kept to report how long it took
+    public InputRecorder recorder = null; // records each attempt at a level while not null
     public GameMenu gameMenu;
     public MusicPlayer musicPlayer;
     public boolean playingMusic = true;    
+    public boolean rasterSprites = false; // blit tokens from the sprite atlas rather than drawing shapes
+    public SpriteAtlas spriteAtlas;
     public StressAndTokenState levelState;
     public PlayerCharacter pc;
     public Wave risingWave;
     public Wave staticWave;
     public DebugOverlay debugOverlay;
     public ScoreOverlay scoreOverlay;
-    public Level[][] levels;
+    public LevelDescriptor[][] levels;
+    private volatile boolean tokenCountsChanged = false; // since the level selector's rows were last written
+    public LevelDescriptor levelDescriptor; // of the current level; null in arcade mode
     public Level level;
+    public long seed; // from which every random stream is split, so that a game can be reproduced
+    private SplittableRandom levelSeeds; // seeds for level layouts
+    private SplittableRandom arcadeRandom; // debuff and difficulty selection for arcade levels
     public CollisionDetector collisionDetector;
-    public long levelStartTimeMillis;
-    public int extensionFrames; // the number of frames per extensions
-    public int repercussionFrames; // the number of frames per repercussion
+    public int levelStartTick;
+    public int extensionFrames; // the number of ticks per extensions
+    public int repercussionFrames; // the number of ticks per repercussion
     public float repercussionMult; // the wave speed multiplier for repercussions 
-    public int endOfExtension = -1; // a value of frameCount
-    public int endOfRepercussion = -1; // a value of frameCount 
+    public int endOfExtension = -1; // a value of tick
+    public int endOfRepercussion = -1; // a value of tick 
     public boolean extensionUsed = false;
 
+    // simulation clock
+    public int tick = 0; // the number of simulation steps run; used in place of frameCount for game logic
+    private long lastFrameNanos = -1; // -1 while the clock is stopped, e.g. in menus
+    private float tickAccumulator = 0; // elapsed ticks not yet simulated, i.e. the interpolation factor
+
+    // positions at the start of the latest tick, for render interpolation
+    private final PVector pcPrevPos = new PVector();
+    private float wavePrevY;
+    private float topPrev;
+
     public boolean debugging = false; // toggles debug overlay and cheat commands 
     public boolean staticStress = false; // prevents stress-based calculations; used for debugging 
 
     private int scrollIncr;  // the rate at which menus scroll 
+    private float overlayPadding; // space at the top of the screen kept clear for the score overlay
 
     public void colorModeHSB() {
         colorMode(HSB, 360f, 1f, 1f, 1f);
@@ -62,15 +95,16 @@ public class DontDrown extends Sketcher {
         this.scrollIncr = height / SCROLL_DIV;
     }
 
+    /* Chooses the seed of every level in the level selector. Levels are built when first played. */
     public void generateLevels() {
-        levels = new Level[Debuff.values().length][];
+        levels = new LevelDescriptor[Debuff.values().length][];
         int deb = 0;
         for (Debuff debuff : Debuff.values()) {
-            levels[deb] = new Level[Difficulty.values().length];
+            levels[deb] = new LevelDescriptor[Difficulty.values().length];
 
             int dif = 0;
             for (Difficulty difficulty : Difficulty.values()) {
-                levels[deb][dif++] = new Level(this, debuff, difficulty);
+                levels[deb][dif++] = new LevelDescriptor(debuff, difficulty, levelSeeds.nextLong());
             }
 
             deb++;
@@ -78,14 +112,117 @@ public class DontDrown extends Sketcher {
         gameMenu.updateLevelSelector();
     }
 
+    /*
+     * Counts the tokens of every level in the level selector on a background
+     * thread, in the order they are listed, so that startup doesn't depend on
+     * the number of levels. The selector shows each count once it is known.
+     */
+    private void countTokensInBackground() {
+        LevelDescriptor[][] toCount = levels;
+        Thread counter = new Thread(() -> {
+            for (LevelDescriptor[] levelBatch : toCount) {
+                for (LevelDescriptor descriptor : levelBatch) {
+                    descriptor.countTokens(this);
+                    tokenCountsChanged = true;
+                }
+            }
+        }, "level-token-counter");
+        counter.setDaemon(true);
+        counter.start();
+    }
+
+    /**
+     * Starts a level from the level selector, building it if needed. Only the
+     * level being played is kept built.
+     */
+    public void selectLevel(LevelDescriptor descriptor) {
+        if (levelDescriptor != null && levelDescriptor != descriptor) {
+            levelDescriptor.evict();
+        }
+        levelDescriptor = descriptor;
+        startLevel(descriptor.build(this));
+        tokenCountsChanged = true; // building counts the tokens, if the counter hasn't yet
+    }
+
     public void startLevel(Level levelToStart) {
         if (levelToStart == null) {
-            level = new Level(this, Debuff.random(), Difficulty.random()); // arcade mode/debugging levels 
+            if (levelDescriptor != null) {
+                levelDescriptor.evict();
+                levelDescriptor = null;
+            }
+            level = arcadeQueue.next(); // arcade mode/debugging levels 
         } else {
             level = levelToStart;
         }
 
-        // reset values 
+        resetLevel();
+        gameState = DontDrown.GameState.MID_LEVEL;
+        gameMenu.midLevel = true;
+        recordPrevPositions(); // don't interpolate from the previous level
+    }
+
+    /**
+     * Starts an endless level with a random debuff and difficulty. Played like
+     * an arcade level, except that it is restarted upon death rather than being
+     * replaced.
+     */
+    public void startEndlessLevel() {
+        if (levelDescriptor != null) {
+            levelDescriptor.evict();
+            levelDescriptor = null;
+        }
+        startLevel(new Level(this, Debuff.random(arcadeRandom), Difficulty.random(arcadeRandom),
+                levelSeeds.nextLong(), true));
+    }
+
+    /** Generates a level with a random debuff and difficulty. */
+    public Level randomLevel() {
+        return new Level(this, Debuff.random(arcadeRandom), Difficulty.random(arcadeRandom), levelSeeds.nextLong());
+    }
+
+    /** Generates a level with a random debuff, difficulty and seed, all drawn from the given stream. */
+    public Level randomLevel(SplittableRandom random) {
+        return new Level(this, Debuff.random(random), Difficulty.random(random), random.nextLong());
+    }
+
+    /** Returns a new stream for arcade selection, e.g. for use by another thread. */
+    public SplittableRandom splitArcadeRandom() {
+        return arcadeRandom.split();
+    }
+
+    /**
+     * Splits the level layout and arcade selection random streams from one
+     * seed. Each stream is independent, so e.g. building more levels does not
+     * change the arcade levels that are picked. Hand-drawing has a fixed seed
+     * of its own (see jitterSeed).
+     */
+    public void seedRandom(long seed) {
+        this.seed = seed;
+        SplittableRandom root = new SplittableRandom(seed);
+        levelSeeds = root.split();
+        arcadeRandom = root.split();
+    }
+
+    /**
+     * Creates the objects needed to simulate levels. Does not load fonts, music
+     * or shapes, so can be used without a window.
+     */
+    void initSimulation() {
+        overlayPadding = ScoreOverlay.paddingHeight(this);
+        levelState = new StressAndTokenState(this);
+        pc = new PlayerCharacter(this);
+        extensionFrames = pc.jumpFrames * EXTENSION_TIME_MULT;
+        repercussionFrames = pc.jumpFrames * REPERCUSSION_TIME_MULT;
+        repercussionMult = 1 + (extensionFrames / (float) repercussionFrames);
+        risingWave = new Wave(this);
+        staticWave = new Wave(this);
+        levelState.pcCalcs();
+        collisionDetector = new CollisionDetector(this);
+    }
+
+    /** Puts the player, wave and level state back to the start of the current level. */
+    void resetLevel() {
+        levelStartTick = tick; // before the level is reset, as tokens take their bob from it
         extensionUsed = false;
         endOfExtension = -1;
         endOfRepercussion = -1;
@@ -95,9 +232,30 @@ public class DontDrown extends Sketcher {
         Platform ground = level.platforms.get(0);
         pc.reset(ground.pos.x + ground.width / 2, ground.pos.y - PlayerCharacter.diameter);
         collisionDetector.pcOldPos = pc.pos.copy();
-        gameState = DontDrown.GameState.MID_LEVEL;
-        gameMenu.midLevel = true;
-        levelStartTimeMillis = System.currentTimeMillis();
+        if (recorder != null) {
+            recorder.start(level);
+        }
+    }
+
+    /**
+     * The time in ticks, for animations that should run at the same speed at
+     * any frame rate: the interpolated simulation time in a level, and the time
+     * since launch elsewhere, e.g. in menus, where the simulation is stopped.
+     */
+    public float animationTicks() {
+        if (gameState.equals(GameState.MID_LEVEL)) {
+            return tick + tickAccumulator;
+        }
+        return millis() * TICKS_PER_SECOND / 1000f;
+    }
+
+    /**
+     * The number of ticks since the current level (re)started. Game logic that
+     * repeats over time is timed by this rather than by tick, so that an
+     * attempt plays out the same however long the game has been running.
+     */
+    public int levelTick() {
+        return tick - levelStartTick;
     }
 
     public void endLevel(boolean completed) {
@@ -112,13 +270,13 @@ public class DontDrown extends Sketcher {
                 gameState = GameState.IN_MENU;
                 gameMenu.setMenuState(GameMenu.MenuState.LEVEL_SELECTION);
                 gameMenu.midLevel = false;
-                float secondsLeft = (level.waveTime * (60 / frameRate))
-                        - (System.currentTimeMillis() - levelStartTimeMillis) / 1000f;
+                float secondsLeft = level.waveTime - levelTick() / (float) TICKS_PER_SECOND;
 
-                if (level.highScore < levelState.tokensCollected
-                        || level.highScore == levelState.tokensCollected && secondsLeft > level.timeLeft) {
-                    level.highScore = levelState.tokensCollected;
-                    level.timeLeft = secondsLeft;
+                LevelDescriptor record = levelDescriptor;
+                if (record != null && (record.highScore < levelState.tokensCollected
+                        || record.highScore == levelState.tokensCollected && secondsLeft > record.timeLeft)) {
+                    record.highScore = levelState.tokensCollected;
+                    record.timeLeft = secondsLeft;
                     gameMenu.updateLevelSelector();
                 }
 
@@ -131,43 +289,70 @@ public class DontDrown extends Sketcher {
 
     }
 
+    /*
+     * Queues everything needed before the menu can be shown, in order. Each
+     * sprite table is warmed up as its own step, so that the progress bar moves
+     * while tokens are generated.
+     */
+    private void queueStartup(StartupLoader loader) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        SpriteTable.WarmUp warmUp = new SpriteTable.WarmUp(pool, WARM_UP_BUCKETS);
+
+        loader.add("Loading audio", 2, () -> musicPlayer = new MusicPlayer(this));
+        loader.add("Preparing the game", 1, () -> {
+            noStroke();
+            spriteAtlas = new SpriteAtlas(this);
+            seedRandom(System.nanoTime());
+            initSimulation();
+            arcadeQueue = new ArcadeQueue(this);
+            debugOverlay = new DebugOverlay(this);
+        });
+        loader.add("Loading fonts", 2, () -> scoreOverlay = new ScoreOverlay(this));
+        loader.add("Building menus", 2, () -> gameMenu = new GameMenu(this));
+        loader.add("Choosing levels", 1, this::generateLevels);
+        loader.add("Creating sprites", 1, () -> {
+            SpriteTable.diskCache = new SpriteCache(Paths.get(sketchPath(SPRITE_CACHE_PATH)), this);
+            Platform.generateTokens(this);
+            Platform.generateTopTokens(this);
+            Token.generateTokens(this);
+        });
+        // generate the first tokens of every sprite table across every core, or load them from a previous launch
+        loader.addEach("Drawing sprites", 10, SpriteTable::tables, warmUp::warm);
+        loader.add("Finishing up", 1, () -> {
+            warmUp.finish();
+            SpriteTable.prefetchPool = pool; // kept to generate tokens ahead of changes in stress
+            levelState.stress = 0;
+            levelState.lookUp();
+            // (once the sprite tables exist, as laying out levels looks them up)
+            countTokensInBackground();
+        });
+    }
+
     @Override
     public void draw() {
         switch (gameState) {
             case PRE_STARTUP:
-                textAlign(CENTER, CENTER);
-                textSize(height / LOADING_TEXT_DIV);
-                fill(0xFF000000);
-                text("Loading...", width / 2f, height / 2f);
-
+                startup = new StartupLoader(this);
+                queueStartup(startup);
+                startup.render();
                 gameState = GameState.STARTUP;
                 break;
             case STARTUP:
-                noStroke();
-                musicPlayer = new MusicPlayer(this);
-                levelState = new StressAndTokenState(this);
-                pc = new PlayerCharacter(this);
-                extensionFrames = pc.jumpFrames * EXTENSION_TIME_MULT;
-                repercussionFrames = pc.jumpFrames * REPERCUSSION_TIME_MULT;
-                repercussionMult = 1 + (extensionFrames / (float) repercussionFrames);
-                risingWave = new Wave(this);
-                staticWave = new Wave(this);
-                levelState.pcCalcs();
-                debugOverlay = new DebugOverlay(this);
-                scoreOverlay = new ScoreOverlay(this);
-                collisionDetector = new CollisionDetector(this);
-                gameMenu = new GameMenu(this);
-                generateLevels();
-
-                levelState.stress = 0;
-                levelState.sketchiness();
-                gameState = GameState.IN_MENU;
+                if (startup.runSlice()) {
+                    gameState = GameState.IN_MENU;
+                }
+                startup.render();
                 break;
             case IN_MENU:
+                lastFrameNanos = -1; // stop the simulation clock
                 cursor();
                 if (playingMusic)
                     musicPlayer.playMusic();
 
+                if (tokenCountsChanged) {
+                    tokenCountsChanged = false;
+                    gameMenu.updateTokenCounts();
+                }
                 gameMenu.render();
 
                 if (debugging)
@@ -178,34 +363,36 @@ public class DontDrown extends Sketcher {
                 if (playingMusic)
                     musicPlayer.playMusic();
 
-                // update positions
-                levelState.update();
-                pc.integrate();
-                level.integrate();
-                integrateWave();
-
-                // check if panning needed
-                if (pc.pos.y < scoreOverlay.endOfPadding + 2 * pc.jumpHeight) {
-                    level.panningState = Level.PanningState.UP;
-                } else if (pc.pos.y > height - (scoreOverlay.endOfPadding + pc.jumpHeight)) {
-                    level.panningState = Level.PanningState.DOWN;
-                } else {
-                    level.panningState = Level.PanningState.NEITHER;
+                advanceSimulation();
+                if (!gameState.equals(GameState.MID_LEVEL)) {
+                    // the level ended during this frame's ticks
+                    break;
                 }
 
-                // detect collisions
-                collisionDetector.detectCollisions();
-
-                // draw
+                // draw positions interpolated between the last two ticks
+                float pcX = pc.pos.x;
+                float pcY = pc.pos.y;
+                float waveY = risingWave.pos.y;
+                float top = level.top;
+                pc.pos.x = lerp(pcPrevPos.x, pcX, tickAccumulator);
+                pc.pos.y = lerp(pcPrevPos.y, pcY, tickAccumulator);
+                risingWave.pos.y = lerp(wavePrevY, waveY, tickAccumulator);
+                level.top = lerp(topPrev, top, tickAccumulator);
+
+                // draw, with the level panned by the camera
+                pushMatrix();
+                translate(0, level.viewOffset());
                 level.render();
                 pc.render();
                 risingWave.render();
+                popMatrix();
 
-                if (levelState.debuff.equals(Debuff.TUNNEL_VISION)) {
-                    fill(0xFF000000);
-                    rect(0f, 0f, width, pc.pos.y - pc.jumpHeight * 1.2f);
-                    rect(0f, pc.pos.y + pc.jumpHeight, width, height);
-                }
+                levelState.rule.renderOverlay(this);
+
+                pc.pos.x = pcX;
+                pc.pos.y = pcY;
+                risingWave.pos.y = waveY;
+                level.top = top;
 
                 scoreOverlay.render();
                 if (debugging)
@@ -214,16 +401,107 @@ public class DontDrown extends Sketcher {
         }
     }
 
+    /*
+     * Runs as many fixed-length ticks as have elapsed since the last frame, so
+     * that the game speed does not depend on the frame rate. Slow frames are
+     * caught up on, up to MAX_TICKS_PER_FRAME.
+     */
+    private void advanceSimulation() {
+        long now = System.nanoTime();
+        if (lastFrameNanos < 0) {
+            // (re)starting the clock, e.g. after a pause, so run a single tick
+            tickAccumulator = 1;
+        } else {
+            tickAccumulator += (now - lastFrameNanos) / NANOS_PER_TICK;
+        }
+        lastFrameNanos = now;
+
+        int ticks = 0;
+        while (tickAccumulator >= 1 && ticks < MAX_TICKS_PER_FRAME && gameState.equals(GameState.MID_LEVEL)) {
+            recordPrevPositions();
+            CollisionDetector.Outcome outcome;
+            if (debugging) {
+                debugOverlay.startAllocationCount();
+                outcome = stepSimulation();
+                debugOverlay.endAllocationCount();
+            } else {
+                outcome = stepSimulation();
+            }
+            if (!outcome.equals(CollisionDetector.Outcome.NONE)) {
+                if (recorder != null) {
+                    recorder.finish(outcome);
+                }
+                endLevel(outcome.equals(CollisionDetector.Outcome.COMPLETED));
+            }
+            tickAccumulator--;
+            ticks++;
+        }
+
+        if (tickAccumulator >= 1) {
+            // too far behind to catch up, so drop the remaining time
+            tickAccumulator = 0;
+        }
+    }
+
+    /* Records the positions that are interpolated from when rendering */
+    private void recordPrevPositions() {
+        pcPrevPos.set(pc.pos);
+        wavePrevY = risingWave.pos.y;
+        topPrev = level.top;
+    }
+
+    /**
+     * Advances the level by one tick, and returns whether the level ended. Does
+     * not allocate, once the level is running.
+     */
+    CollisionDetector.Outcome stepSimulation() {
+        // update positions
+        levelState.update();
+        pc.integrate();
+        level.integrate();
+        integrateWave();
+
+        // check if panning needed
+        float pcScreenY = pc.pos.y + level.viewOffset();
+        if (pcScreenY < overlayPadding + 2 * pc.jumpHeight) {
+            level.panningState = Level.PanningState.UP;
+        } else if (pcScreenY > height - (overlayPadding + pc.jumpHeight)) {
+            level.panningState = Level.PanningState.DOWN;
+        } else {
+            level.panningState = Level.PanningState.NEITHER;
+        }
+
+        // detect collisions
+        CollisionDetector.Outcome outcome = collisionDetector.detectCollisions();
+        tick++;
+        return outcome;
+    }
+
     private void integrateWave() {
-        if (frameCount <= endOfExtension) {
+        if (tick <= endOfExtension) {
             // don't change the wave
-        } else if (frameCount <= endOfRepercussion) {
+        } else if (tick <= endOfRepercussion) {
             risingWave.pos.y -= level.waveRiseRate * repercussionMult;
         } else {
             risingWave.pos.y -= level.waveRiseRate;
         }
     }
 
+    /** Triggers the extension, which holds the wave still for a while before it speeds up. */
+    public void extend() {
+        endOfExtension = tick + extensionFrames;
+        endOfRepercussion = endOfExtension + repercussionFrames;
+        extensionUsed = false;
+    }
+
+    /* Applies an input to the current level, recording it if inputs are being recorded */
+    private void input(Replay.Input input) {
+        input.apply(this);
+        if (recorder != null) {
+            recorder.record(input);
+        }
+    }
+
     @Override
     public void keyPressed() {
         if (key == 'D') {
@@ -248,16 +526,16 @@ public class DontDrown extends Sketcher {
                 if (key == CODED) {
                     switch (keyCode) {
                         case LEFT:
-                            pc.steer(PlayerCharacter.SteerState.LEFT);
+                            input(Replay.Input.STEER_LEFT);
                             break;
                         case RIGHT:
-                            pc.steer(PlayerCharacter.SteerState.RIGHT);
+                            input(Replay.Input.STEER_RIGHT);
                             break;
                         case UP:
-                            pc.jump();
+                            input(Replay.Input.JUMP);
                             break;
                         case DOWN:
-                            pc.drop();
+                            input(Replay.Input.DROP);
                             break;
                         default:
                             // do nothing
@@ -267,9 +545,7 @@ public class DontDrown extends Sketcher {
                     gameMenu.setMenuState(GameMenu.MenuState.PAUSE_MENU);
                     gameState = GameState.IN_MENU;
                 } else if (key == ' ' && !extensionUsed) {
-                    endOfExtension = frameCount + extensionFrames;
-                    endOfRepercussion = endOfExtension + repercussionFrames;
-                    extensionUsed = false;
+                    input(Replay.Input.EXTEND);
                 } else if (debugging) {
                     switch (key) {
                         case '`':
@@ -312,6 +588,16 @@ public class DontDrown extends Sketcher {
                         case 'S':
                             staticStress = !staticStress;
                             break;
+                        case 'r':
+                        case 'R':
+                            // record from the next attempt, or stop recording
+                            if (recorder == null) {
+                                recorder = new InputRecorder(this, Paths.get(sketchPath(InputRecorder.DIRECTORY)));
+                            } else {
+                                recorder.close();
+                                recorder = null;
+                            }
+                            break;
                         default:
                             if (Character.isDigit(key)) {
                                 levelState.stress = Integer.parseInt("" + key) * 10f;
@@ -330,12 +616,12 @@ public class DontDrown extends Sketcher {
             switch (keyCode) {
                 case LEFT:
                     if (pc.getSteerState().equals(PlayerCharacter.SteerState.LEFT)) {
-                        pc.steer(PlayerCharacter.SteerState.NEITHER);
+                        input(Replay.Input.STEER_NEITHER);
                     }
                     break;
                 case RIGHT:
                     if (pc.getSteerState().equals(PlayerCharacter.SteerState.RIGHT)) {
-                        pc.steer(PlayerCharacter.SteerState.NEITHER);
+                        input(Replay.Input.STEER_NEITHER);
                     }
                     break;
                 default:
@@ -358,6 +644,15 @@ public class DontDrown extends Sketcher {
         }
     }
 
+    @Override
+    public void dispose() {
+        if (recorder != null) {
+            recorder.close(); // write the attempt in progress
+            recorder = null;
+        }
+        super.dispose();
+    }
+
     public static void main(String[] args) {
         String[] processingArgs = { "DontDrown" };
         DontDrown sketch = new DontDrown();
@@ -11,7 +11,7 @@ public class GameMenu {
 
     private static class ClickableText {
 
-        final String text;
+        String text; // may be rewritten in place, e.g. once a level's token count is known
         final int alignment; // uses PConstants directions
 
         PVector pos; // bottom left/right
@@ -143,6 +143,9 @@ public class GameMenu {
             menu.linesOfText.add(
                     new LineOfText(new ClickableText(
                             DontDrown.BULLET_POINT + " Arcade mode (randomly generated levels)", PConstants.LEFT)));
+            menu.linesOfText.add(
+                    new LineOfText(new ClickableText(
+                            DontDrown.BULLET_POINT + " Endless mode (one random level that never ends)", PConstants.LEFT)));
             menu.linesOfText.add(new LineOfText(""));
             menu.linesOfText.add(
                     new LineOfText(new ClickableText(DontDrown.BULLET_POINT + " Drop out of game", PConstants.LEFT)));
@@ -153,11 +156,13 @@ public class GameMenu {
             MenuPage menu = new MenuPage("Settings", true);
             menu.linesOfText
                     .add(new LineOfText(new ClickableText(DontDrown.BULLET_POINT + " Toggle music", PConstants.LEFT)));
+            menu.linesOfText.add(new LineOfText(
+                    new ClickableText(DontDrown.BULLET_POINT + " Toggle raster sprites (faster drawing)", PConstants.LEFT)));
             menu.linesOfText.add(new LineOfText(""));
             menu.linesOfText.add(new LineOfText(
-                    "The speed of the game is tied to the frame rate, so lowering the FPS can make the game easier if you are struggling."));
-            menu.linesOfText
-                    .add(new LineOfText("N.B. Changing FPS mid-level will break the calculation of seconds to spare!"));
+                    "The game runs at the same speed at any frame rate, so lowering the FPS only reduces the drawing load."));
+            menu.linesOfText.add(new LineOfText(
+                    new ClickableText("    " + DontDrown.BULLET_POINT + " Set FPS to 144", PConstants.LEFT)));
             menu.linesOfText.add(new LineOfText(
                     new ClickableText("    " + DontDrown.BULLET_POINT + " Set FPS to 60", PConstants.LEFT)));
             menu.linesOfText.add(new LineOfText(
@@ -215,7 +220,7 @@ public class GameMenu {
                             case LEVEL_SELECTION:
                                 int debuffIndex = i / Difficulty.values().length;
                                 int difficultyIndex = i % Difficulty.values().length;
-                                sketch.startLevel(sketch.levels[debuffIndex][difficultyIndex]);
+                                sketch.selectLevel(sketch.levels[debuffIndex][difficultyIndex]);
                                 break;
                             case MAIN_MENU:
                                 if (i == 0) {
@@ -228,6 +233,9 @@ public class GameMenu {
                                     sketch.arcadeMode = true;
                                     sketch.startLevel(null);
                                 } else if (i == 4) {
+                                    sketch.arcadeMode = true;
+                                    sketch.startEndlessLevel();
+                                } else if (i == 5) {
                                     sketch.exit();
                                 }
                                 break;
@@ -245,6 +253,7 @@ public class GameMenu {
                                     gameMenu.setMenuState(sketch.arcadeMode ? GameMenu.MenuState.MAIN_MENU
                                             : GameMenu.MenuState.LEVEL_SELECTION);
                                     sketch.arcadeMode = false;
+                                    sketch.arcadeQueue.stop();
                                     sketch.levelState.reset();
                                 } else if (i == 4) {
                                     sketch.exit();
@@ -254,12 +263,16 @@ public class GameMenu {
                                 if (i == 0) {
                                     sketch.playingMusic = !sketch.playingMusic;
                                 } else if (i == 1) {
-                                    sketch.frameRate(60);
+                                    sketch.rasterSprites = !sketch.rasterSprites;
                                 } else if (i == 2) {
-                                    sketch.frameRate(45);
+                                    sketch.frameRate(144);
                                 } else if (i == 3) {
-                                    sketch.frameRate(30);
+                                    sketch.frameRate(60);
                                 } else if (i == 4) {
+                                    sketch.frameRate(45);
+                                } else if (i == 5) {
+                                    sketch.frameRate(30);
+                                } else if (i == 6) {
                                     sketch.frameRate(15);
                                 }
                                 break;
@@ -366,16 +379,11 @@ public class GameMenu {
         ArrayList<LineOfText> linesOfText = MenuState.LEVEL_SELECTION.menuPage.linesOfText;
         linesOfText.clear();
         int debuffIndex = 0;
-        for (Level[] levelBatch : sketch.levels) { // grouped by debuff
+        for (LevelDescriptor[] levelBatch : sketch.levels) { // grouped by debuff
             Debuff debuff = Debuff.values()[debuffIndex++];
             linesOfText.add(new LineOfText(debuff.label + ": " + debuff.description));
-            for (Level level : levelBatch) {
-                linesOfText.add(new LineOfText(new ClickableText(
-                        String.format("     " + DontDrown.BULLET_POINT + " %-15s %-10s %s",
-                                level.difficulty.name().replace("_", " ").toLowerCase(),
-                                String.format("%d/%d", level.highScore, level.tokens.size()),
-                                level.timeLeft == -123 ? "" : String.format("%.2f seconds to spare", level.timeLeft)),
-                        PConstants.LEFT)));
+            for (LevelDescriptor level : levelBatch) {
+                linesOfText.add(new LineOfText(new ClickableText(levelSelectorRow(level), PConstants.LEFT)));
             }
             linesOfText.add(new LineOfText(""));
         }
@@ -390,6 +398,34 @@ public class GameMenu {
 
     }
 
+    /**
+     * Rewrites the text of the level selector's rows, e.g. as token counts are
+     * worked out, keeping the page's layout and scroll position.
+     */
+    public void updateTokenCounts() {
+        int row = 0;
+        ArrayList<LineOfText> linesOfText = MenuState.LEVEL_SELECTION.menuPage.linesOfText;
+        for (LevelDescriptor[] levelBatch : sketch.levels) {
+            for (LevelDescriptor level : levelBatch) {
+                // (the clickable lines are the levels, in order)
+                while (linesOfText.get(row).clickable == null) {
+                    row++;
+                }
+                linesOfText.get(row++).clickable.text = levelSelectorRow(level);
+            }
+        }
+    }
+
+    /* A level's row in the level selector */
+    private static String levelSelectorRow(LevelDescriptor level) {
+        return String.format("     " + DontDrown.BULLET_POINT + " %-15s %-10s %s",
+                level.difficulty.name().replace("_", " ").toLowerCase(),
+                level.tokenCount == LevelDescriptor.UNKNOWN
+                        ? String.format("%d/?", level.highScore)
+                        : String.format("%d/%d", level.highScore, level.tokenCount),
+                level.timeLeft == -123 ? "" : String.format("%.2f seconds to spare", level.timeLeft));
+    }
+
     private void resetPage() {
         if (menuState.menuPage.page.startAtTop) {
             // scroll back up to top
@@ -0,0 +1,22 @@
+/**
+ * The parameters of hand-drawn lines used to generate a token. A style is
+ * fixed for the whole of a token's generation, so that tokens can be
+ * generated on any thread without reading the sketch's state.
+ */
+public final class HandDrawStyle {
+
+    public final float roughStrokeWeight; // the average weight of hand drawn lines
+    public final float roughStrokeVariabilityRate; // the max deviation from a smooth line
+    public final int roughStrokeShakiness; // the rate at which the rough line deviates
+
+    public HandDrawStyle(float roughStrokeWeight, float roughStrokeVariabilityRate, int roughStrokeShakiness) {
+        this.roughStrokeWeight = roughStrokeWeight;
+        this.roughStrokeVariabilityRate = roughStrokeVariabilityRate;
+        this.roughStrokeShakiness = roughStrokeShakiness;
+    }
+
+    /** The same style with a different stroke weight, e.g. for a thicker line. */
+    public HandDrawStyle withWeight(float roughStrokeWeight) {
+        return new HandDrawStyle(roughStrokeWeight, roughStrokeVariabilityRate, roughStrokeShakiness);
+    }
+}
@@ -0,0 +1,382 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+import processing.core.PVector;
+
+/**
+ * Handles "hand-drawing" lines and some simple shapes, for the generation of
+ * one token.
+ *
+ * A drawer is confined to the thread that generates its token. Its style and
+ * random stream are its own, and its shapes are created by a renderer private
+ * to the thread, so tokens can be generated in parallel. Every shape is a
+ * SpriteShape, so that tokens can be cached, and the plain fills of shapes
+ * are shared between tokens (see SpriteShape.shared()).
+ */
+public class HandDrawer {
+
+    /*
+     * Creates shapes with the style that the sketch has when it draws tokens, i.e.
+     * no stroke, RGB colours and centred ellipses. The renderer is never drawn to.
+     */
+    private static final ThreadLocal<PGraphics> SHAPES = ThreadLocal.withInitial(() -> {
+        PGraphics shapes = new PGraphics();
+        shapes.colorMode(PConstants.RGB, 255);
+        shapes.noStroke();
+        shapes.fill(255);
+        shapes.rectMode(PConstants.CORNER);
+        shapes.ellipseMode(PConstants.CENTER);
+        return shapes;
+    });
+
+    public static boolean meshes = true; // whether mesh() flattens tokens; part of the sprite cache's key
+
+    public final HandDrawStyle style;
+    private final SplittableRandom random; // source of hand-drawn imperfections
+    private final PGraphics shapes = SHAPES.get();
+    private final HandDrawer root; // the drawer of the whole token, which other drawers of it are made from
+    private boolean jittered = false; // whether the token so far depends on the random stream; kept by the root
+
+    public HandDrawer(HandDrawStyle style, SplittableRandom random) {
+        this(style, random, null);
+    }
+
+    private HandDrawer(HandDrawStyle style, SplittableRandom random, HandDrawer root) {
+        this.style = style;
+        this.random = random;
+        this.root = root == null ? this : root;
+    }
+
+    /** The renderer that creates this thread's shapes, e.g. for rebuilding cached tokens. */
+    public static PGraphics shapes() {
+        return SHAPES.get();
+    }
+
+    /** An empty group, to which a token's shapes can be added. */
+    public PShape group() {
+        return new SpriteShape(shapes, PConstants.GROUP);
+    }
+
+    /**
+     * Flattens a token into one shape per layer, e.g. so that a platform is
+     * drawn as its shared fill and a single outline rather than a shape per
+     * line. Consecutive outline shapes of the same colour are merged into one
+     * path, with each outline as a contour of it; shared fills, and anything
+     * else, are kept as they are. If nothing in the token was jittered, e.g.
+     * at a style too steady to shake its lines, every variant draws the same
+     * meshes, so they are shared (see SpriteShape.sharedMesh()). Returns the
+     * token unchanged unless meshes is set.
+     */
+    public PShape mesh(PShape token) {
+        if (!meshes) {
+            return token;
+        }
+        ArrayList<PShape> layers = new ArrayList<>();
+        flattenInto(token, layers);
+
+        PShape flat = group();
+        ArrayList<float[]> outlines = new ArrayList<>(); // of the open mesh, to which outlines of its colour are added
+        int meshColour = 0;
+        for (PShape layer : layers) {
+            float[] outline = outline(layer);
+            int colour = outline == null ? 0 : ((SpriteShape) layer).getFillColour();
+            if (!outlines.isEmpty() && outline != null && colour == meshColour) {
+                outlines.add(outline);
+                continue;
+            }
+
+            closeMesh(flat, outlines, meshColour);
+            if (outline == null) {
+                flat.addChild(layer);
+            } else {
+                outlines.add(outline);
+                meshColour = colour;
+            }
+        }
+        closeMesh(flat, outlines, meshColour);
+        return flat;
+    }
+
+    /* Adds the mesh of the open outlines, if there are any, and empties them */
+    private void closeMesh(PShape flat, ArrayList<float[]> outlines, int colour) {
+        if (outlines.isEmpty()) {
+            return;
+        }
+        int length = 0;
+        for (float[] outline : outlines) {
+            length += outline.length;
+        }
+        float[] vertices = new float[length];
+        int[] contourStarts = new int[outlines.size() - 1];
+        int position = 0;
+        for (int i = 0; i < outlines.size(); i++) {
+            if (i > 0) {
+                contourStarts[i - 1] = position / 2;
+            }
+            float[] outline = outlines.get(i);
+            System.arraycopy(outline, 0, vertices, position, outline.length);
+            position += outline.length;
+        }
+        if (root.jittered) {
+            SpriteShape mesh = SpriteShape.mesh(shapes, vertices, contourStarts, true);
+            mesh.setFill(colour);
+            flat.addChild(mesh);
+        } else {
+            flat.addChild(SpriteShape.sharedMesh(colour, true, vertices, contourStarts));
+        }
+        outlines.clear();
+    }
+
+    /* Lists the shapes of a tree in the order they are drawn */
+    private static void flattenInto(PShape shape, ArrayList<PShape> layers) {
+        if (shape.getFamily() == PConstants.GROUP) {
+            for (int i = 0; i < shape.getChildCount(); i++) {
+                flattenInto(shape.getChild(i), layers);
+            }
+        } else {
+            layers.add(shape);
+        }
+    }
+
+    /* The vertices of a filled outline shape as x, y pairs, or null if the shape can't be merged into a mesh */
+    private static float[] outline(PShape shape) {
+        if (!(shape instanceof SpriteShape)) {
+            return null;
+        }
+        SpriteShape sprite = (SpriteShape) shape;
+        if (sprite.isShared() || !sprite.hasFill() || !sprite.isStyleEnabled()) {
+            return null;
+        }
+        if (sprite.getFamily() == PShape.PRIMITIVE && sprite.getKind() == PConstants.QUAD) {
+            return sprite.getParams();
+        }
+        if (sprite.getFamily() == PShape.GEOMETRY && sprite.getKind() == PConstants.POLYGON && sprite.isClosed()) {
+            float[] outline = new float[2 * sprite.getVertexCount()];
+            for (int i = 0; i < sprite.getVertexCount(); i++) {
+                outline[2 * i] = sprite.getVertexX(i);
+                outline[2 * i + 1] = sprite.getVertexY(i);
+            }
+            return outline;
+        }
+        return null;
+    }
+
+    /** A drawer that continues this one's random stream with a different stroke weight. */
+    public HandDrawer withWeight(float roughStrokeWeight) {
+        return new HandDrawer(style.withWeight(roughStrokeWeight), random, root);
+    }
+
+    /** Converts a colour from the sketch's HSB mode (360, 1, 1, 1) to ARGB. Safe to call from any thread. */
+    public static int hsbColour(float hue, float saturation, float brightness, float alpha) {
+        PGraphics shapes = SHAPES.get();
+        shapes.colorMode(PConstants.HSB, 360f, 1f, 1f, 1f);
+        int colour = shapes.color(hue, saturation, brightness, alpha);
+        shapes.colorMode(PConstants.RGB, 255);
+        return colour;
+    }
+
+    /* A random value from low (inclusive) to high (exclusive), from the drawer's stream */
+    private float jitter(float low, float high) {
+        return low + (float) random.nextDouble() * (high - low);
+    }
+
+    /* The number of jittered sections along one side of a rough line, which may be none */
+    private int sections(int roughStrokeShakiness) {
+        int sections = (int) jitter(0, roughStrokeShakiness);
+        if (sections > 0) {
+            root.jittered = true;
+        }
+        return sections;
+    }
+
+    /* Draws a line that evenly thickens/thins from one end to the other  */
+    private PShape drawDualWeightedLine(PVector start, PVector end, float startWeight, float endWeight) {
+        float heading = (start.copy().sub(end)).heading();
+        heading += PConstants.HALF_PI;
+        PVector startPadding = PVector.fromAngle(heading).mult(startWeight);
+        PVector endPadding = PVector.fromAngle(heading).mult(endWeight);
+
+        PVector topLeft = start.copy().sub(startPadding);
+        PVector topRight = end.copy().sub(endPadding);
+        PVector bottomRight = end.copy();
+        PVector bottomLeft = start.copy();
+
+        return new SpriteShape(shapes, PConstants.QUAD,
+                topLeft.x, topLeft.y,
+                topRight.x, topRight.y,
+                bottomRight.x, bottomRight.y,
+                bottomLeft.x, bottomLeft.y);
+    }
+
+    /* Wrapper function that sets the line colour */
+    public PShape handDrawLine(int strokeColour, PVector start, PVector end) {
+        PShape line = handDrawLine(start, end);
+        line.setFill(strokeColour);
+        return line;
+    }
+
+    /*
+     * Essentially creates a jagged quasi-quadrilteral to act as a hand-drawn line
+     */
+    private PShape handDrawLine(PVector start, PVector end) {
+        float roughStrokeWeight = style.roughStrokeWeight;
+        int roughStrokeShakiness = style.roughStrokeShakiness;
+        PVector smoothLine = start.copy().sub(end);
+        float smoothLineLength = smoothLine.mag();
+        float heading = smoothLine.heading();
+        heading += PConstants.HALF_PI;
+        PVector padding = PVector.fromAngle(heading).mult(roughStrokeWeight);
+        float roughStrokeVariability = roughStrokeWeight * style.roughStrokeVariabilityRate;
+
+        // topLeft is not necessarily the top left corner, but it's easier to keep track
+        // of than just numbering the corners
+        PVector topLeft = start.copy().sub(padding);
+        PVector topRight = end.copy().sub(padding);
+        PVector bottomRight = topRight.copy().add(padding);
+        PVector bottomLeft = topLeft.copy().add(padding);
+
+        PShape roughLine = new SpriteShape(shapes, PShape.GEOMETRY);
+        roughLine.beginShape();
+        roughLine.vertex(topLeft.x, topLeft.y); // top left corner
+
+        int sections = sections(roughStrokeShakiness);
+        PVector section = topLeft.copy();
+        PVector direction = (topRight.copy().sub(topLeft)).normalize();
+        for (int i = 0; i < sections; i++) {
+            section = section.add(direction.copy().mult(jitter(0, smoothLineLength / sections)));
+            roughLine.vertex(section.x + jitter(-roughStrokeVariability, roughStrokeVariability),
+                    section.y + jitter(-roughStrokeVariability, roughStrokeVariability));
+        }
+
+        roughLine.vertex(topRight.x, topRight.y);
+        roughLine.vertex(bottomRight.x, bottomRight.y);
+
+        sections = sections(roughStrokeShakiness);
+        section = bottomRight.copy();
+        direction = (bottomLeft.copy().sub(bottomRight)).normalize();
+        for (int i = 0; i < sections; i++) {
+            section = section.add(direction.copy().mult(jitter(0, smoothLineLength / sections)));
+            roughLine.vertex(section.x + jitter(-roughStrokeVariability, roughStrokeVariability),
+                    section.y + jitter(-roughStrokeVariability, roughStrokeVariability));
+        }
+
+        roughLine.vertex(bottomLeft.x, bottomLeft.y);
+        roughLine.endShape(PConstants.CLOSE);
+        return roughLine;
+    }
+
+    /* black stroke and empty fill */
+    public PShape handDraw(int type, float... params) {
+        return handDraw(type, 0xFF000000, 0xFFFFFFFF, params);
+    }
+
+    /**
+     * Hand draws a primitive shape.
+     * @param type PConstants.QUAD, PConstants.RECT or PConstants.ELLIPSE
+     * @param strokeColour
+     * @param fillColour
+     * @param params for a QUAD: x1, y1, x2, y2, x3, y3, x4, y4;
+     *               for a RECT: x, y, width, height;
+     *               for an ELLIPSE: vertices, x, y, width, height;
+     * @return
+     */
+    public PShape handDraw(int type, int strokeColour, int fillColour, float... params) {
+        float roughStrokeWeight = style.roughStrokeWeight;
+        float roughStrokeVariability = roughStrokeWeight * style.roughStrokeVariabilityRate;
+
+        switch (type) {
+            case PConstants.QUAD:
+                // params : x1, y1, x2, y2, x3, y3, x4, y4
+                if (params.length != 8) {
+                    throw new IndexOutOfBoundsException(
+                            "handDraw(QUAD) requires 8 floats in params, got " + params.length);
+                } else {
+                    PShape quad = new SpriteShape(shapes, PConstants.GROUP);
+
+                    // add the fill as a normal shape, shared with every other token with the same fill
+                    quad.addChild(SpriteShape.shared(type, fillColour, true, params));
+
+                    PShape line = handDrawLine(new PVector(params[0], params[1]), new PVector(params[2], params[3]));
+                    line.setFill(strokeColour);
+                    quad.addChild(line);
+
+                    line = handDrawLine(new PVector(params[2], params[3]), new PVector(params[4], params[5]));
+                    line.setFill(strokeColour);
+                    quad.addChild(line);
+
+                    line = handDrawLine(new PVector(params[4], params[5]), new PVector(params[6], params[7]));
+                    line.setFill(strokeColour);
+                    quad.addChild(line);
+
+                    line = handDrawLine(new PVector(params[6], params[7]), new PVector(params[0], params[1]));
+                    line.setFill(strokeColour);
+                    quad.addChild(line);
+
+                    return quad;
+                }
+            case PConstants.RECT:
+                // params : x, y, width, height
+                if (params.length != 4) {
+                    throw new IndexOutOfBoundsException(
+                            "handDraw(RECT) requires 4 floats in params, got " + params.length);
+                } else {
+                    return handDraw(PConstants.QUAD, strokeColour, fillColour,
+                            params[0], params[1],
+                            params[0] + params[2], params[1],
+                            params[0] + params[2], params[1] + params[3],
+                            params[0], params[1] + params[3]);
+                }
+            case PConstants.ELLIPSE:
+                // params : vertices, x, y, width, height
+                if (params.length != 5) {
+                    throw new IndexOutOfBoundsException(
+                            "handDraw(ELLIPSE) requires 5 floats in params, got " + params.length);
+                } else {
+                    int vertices = (int) params[0];
+                    float centreX = params[1];
+                    float centreY = params[2];
+                    float width = params[3] / 2;
+                    float height = params[4] / 2;
+
+                    PShape ellipse = new SpriteShape(shapes, PConstants.GROUP);
+                    if (roughStrokeVariability != 0) {
+                        root.jittered = true; // in the weights of its lines
+                    }
+
+                    // add the fill as a normal shape, shared with every other token with the same fill
+                    ellipse.addChild(SpriteShape.shared(type, fillColour, true,
+                            centreX, centreY, width * 2, height * 2));
+
+                    // generate the lines around the circumference of the ellipse
+                    PVector start = new PVector(centreX + width * PApplet.cos(0), centreY + height * PApplet.sin(0));
+                    PVector end = new PVector();
+                    float startWeight = roughStrokeWeight;
+                    float endWeight = roughStrokeWeight + jitter(-roughStrokeVariability, roughStrokeVariability);
+
+                    for (int i = 1; i <= vertices; i++) {
+                        float angle = i * PConstants.TAU / vertices;
+                        end.x = (centreX + width * PApplet.cos(angle));
+                        end.y = (centreY + height * PApplet.sin(angle));
+
+                        PShape line = drawDualWeightedLine(start, end, startWeight, endWeight);
+                        line.setFill(strokeColour);
+                        ellipse.addChild(line);
+
+                        start.x = end.x;
+                        start.y = end.y;
+                        startWeight = endWeight;
+                        endWeight = roughStrokeWeight + jitter(-roughStrokeVariability, roughStrokeVariability);
+                    }
+
+                    return ellipse;
+                }
+            default:
+                System.err.println("handDraw() only works with QUAD, RECT and ELLIPSE objects");
+                return new SpriteShape(shapes, type, params);
+        }
+    }
+}
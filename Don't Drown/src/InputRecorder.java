@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records each attempt at a level as a Replay. Recording an input only stores
+ * it in an array, so it costs nothing on frames without input; each attempt is
+ * encoded and written to a file of its own by a background thread once it
+ * ends.
+ *
+ * Debug cheats that change the level, e.g. setting the stress, aren't
+ * recorded, so an attempt that used them won't replay as it was played.
+ */
+public class InputRecorder {
+
+    public static final String DIRECTORY = "replays";
+    private static final int INITIAL_CAPACITY = 256; // inputs per attempt before the arrays grow
+    private static final int BUFFER_BYTES = 8192;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final DontDrown sketch;
+    private final Path directory;
+    private final String prefix; // of each file's name, from when recording started
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "replay-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES); // only used by the writer
+
+    private Level level = null; // of the attempt being recorded; null between attempts
+    private int[] ticks = new int[INITIAL_CAPACITY];
+    private Replay.Input[] inputs = new Replay.Input[INITIAL_CAPACITY];
+    private int count = 0;
+    private int attempts = 0;
+
+    public InputRecorder(DontDrown sketch, Path directory) {
+        this.sketch = sketch;
+        this.directory = directory;
+        prefix = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+    }
+
+    /** The number of attempts recorded so far, including any still being written. */
+    public int attempts() {
+        return attempts;
+    }
+
+    /** Starts recording an attempt at a level, ending any attempt being recorded. */
+    public void start(Level level) {
+        finish(CollisionDetector.Outcome.NONE);
+        this.level = level;
+        count = 0;
+    }
+
+    /** Records an input applied to the current level, before its next tick. */
+    public void record(Replay.Input input) {
+        if (level == null) {
+            return;
+        }
+        if (count == inputs.length) {
+            ticks = Arrays.copyOf(ticks, 2 * count);
+            inputs = Arrays.copyOf(inputs, 2 * count);
+        }
+        ticks[count] = sketch.levelTick();
+        inputs[count++] = input;
+    }
+
+    /** Ends the attempt being recorded, if any, and queues it to be written. */
+    public void finish(CollisionDetector.Outcome outcome) {
+        if (level == null) {
+            return;
+        }
+
+        Replay replay = new Replay(sketch.width, sketch.height, level, outcome, sketch.levelTick(),
+                Arrays.copyOf(ticks, count), Arrays.copyOf(inputs, count));
+        Path path = directory.resolve(String.format("%s-%03d-%s-%s.replay", prefix, ++attempts, level.debuff,
+                level.difficulty));
+        writer.execute(() -> write(replay, path));
+        level = null;
+    }
+
+    /* Writes a replay to its file. Runs on the writer thread */
+    private void write(Replay replay, Path path) {
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                replay.write(channel, buffer);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write replay " + path + ": " + e);
+        }
+    }
+
+    /** Ends the attempt being recorded, and waits for every attempt to be written. */
+    public void close() {
+        finish(CollisionDetector.Outcome.NONE);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
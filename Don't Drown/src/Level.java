@@ -1,4 +1,6 @@
 import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
 
 import processing.core.PVector;
 
@@ -13,18 +15,23 @@ public class Level {
     public static final float H_MAX_JUMP_HEIGHT_MULT = 0.5f;
     public static final float V_MIN_JUMP_HEIGHT_MULT = 0.75f;
     public static final float V_MAX_JUMP_HEIGHT_MULT = 1f;
+    public static final float CHUNK_HEIGHT_MULT = 1f; // height of an endless level's chunks, relative to the viewport
 
     private final DontDrown sketch;
 
     // meta information
     public final Debuff debuff;
     public final Difficulty difficulty;
+    public final long seed; // with the debuff and difficulty, determines the layout
+    public final boolean endless; // generated in chunks as it is climbed, and has no top platform
+    private final boolean countingTokens; // only laying out the level, to count its tokens
+    private int tokenCount = 0; // placed so far
     public final int height;
     public final Page page;
     public final float panRate;
     public final float topLimit; // used to stop over-panning
     private final float tokenElevation; // height above platforms for tokens to hover
-    public final float waveTime; // time taken for the wave to reach the top platform
+    public final float waveTime; // time taken for the wave to reach the top platform; infinite if endless
 
     // level generation values
     public final float lowestPlatformHeight;
@@ -35,6 +42,16 @@ public class Level {
     private final float jumpHeight; // cached value from PC
     private final float verticality; // affects the ratio of vertical jumps to horizontal ones
 
+    // level generation state, kept between the chunks of an endless level
+    private SplittableRandom layoutRandom;
+    private Platform prevPlatform;
+    private Platform currentPlatform;
+    private Platform topmostPlatform; // the highest generated so far
+    private float diffX, diffY; // displacements between current and next platform
+    private boolean goingLeft;
+    private boolean redHerring; // whether or not to add an extra platform with a token
+    private int sinceRedHerring; // the minimum number of platforms between tokens
+
     // wave speed
     public final float defaultWaveRiseRate;
     public float waveRiseRate;
@@ -47,30 +64,52 @@ public class Level {
 
     // variable values
     public PanningState panningState = PanningState.NEITHER;
-    public float top; // the top of the level relative to the viewport
+    public float top; // the top of the level relative to the viewport, i.e. the camera position
     public ArrayList<Token> tokens = new ArrayList<>();
     public ArrayList<Platform> platforms = new ArrayList<>();
-    public Platform highestPlatform;
+    public Platform highestPlatform; // completes the level when landed on; null if endless
+    private VerticalIndex<Platform> platformsByHeight; // for rendering only the visible band
+    private VerticalIndex<Token> tokensByHeight;
+
+    public Level(DontDrown sketch, Debuff debuff, Difficulty difficulty, long seed) {
+        this(sketch, debuff, difficulty, seed, false);
+    }
 
-    // high score
-    public int highScore = 0;
-    public float timeLeft = -123; // value for which the level selector menu does not show seconds to spare
+    /**
+     * @param endless whether the level should keep generating platforms above
+     *                the camera rather than ending at a top platform, in which
+     *                case the difficulty's height is ignored
+     */
+    public Level(DontDrown sketch, Debuff debuff, Difficulty difficulty, long seed, boolean endless) {
+        this(sketch, debuff, difficulty, seed, endless, false);
+    }
 
-    public Level(DontDrown sketch, Debuff debuff, Difficulty difficulty) {
+    private Level(DontDrown sketch, Debuff debuff, Difficulty difficulty, long seed, boolean endless,
+            boolean countingTokens) {
         this.sketch = sketch;
 
         // meta information
         this.debuff = debuff;
         this.difficulty = difficulty;
-        this.height = (int) (sketch.height * difficulty.heightMult);
-        page = new Page(sketch, height, false);
+        this.seed = seed;
+        this.endless = endless;
+        this.countingTokens = countingTokens;
+        this.height = endless ? sketch.height : (int) (sketch.height * difficulty.heightMult);
+        if (endless) {
+            // an endless page is redrawn wherever the camera is, so it must cover the viewport from any line
+            float lineGap = sketch.width / PlayerCharacter.PC_DIAMETER_DIV;
+            page = new Page(sketch, (int) Math.ceil(sketch.height + ScoreOverlay.paddingHeight(sketch) + 2 * lineGap),
+                    false);
+        } else {
+            page = new Page(sketch, height, false);
+        }
         panRate = height / PAN_RATE_DIV;
         topLimit = (float) sketch.height - height;
         tokenElevation = 0.75f * sketch.width / PlayerCharacter.PC_DIAMETER_DIV;
 
         // level generation values
         lowestPlatformHeight = .75f * sketch.height;
-        highestPlatformHeight = page.topLineY + sketch.height / 10f;
+        highestPlatformHeight = endless ? Float.NEGATIVE_INFINITY : page.topLineY + sketch.height / 10f;
         playableWidth = sketch.width - Page.marginX;
         this.verticality = difficulty.verticality;
         this.betweenRedHerrings = difficulty.betweenRedHerrings;
@@ -78,20 +117,41 @@ public class Level {
         jumpHeight = sketch.pc.jumpHeight;
 
         // wave speed
-        defaultWaveRiseRate = sketch.height / (60f * difficulty.waveRiseTime);
+        defaultWaveRiseRate = sketch.height / (DontDrown.TICKS_PER_SECOND * difficulty.waveRiseTime);
         waveRiseRate = defaultWaveRiseRate;
 
         top = topLimit;
 
         generatePlatformsAndTokens(difficulty.hasGround);
 
-        float heightRatio = (Wave.waveInitHeight - highestPlatform.pos.y) / sketch.height;
-        waveTime = difficulty.waveRiseTime * heightRatio;
+        if (endless) {
+            waveTime = Float.POSITIVE_INFINITY;
+        } else {
+            float heightRatio = (Wave.waveInitHeight - highestPlatform.pos.y) / sketch.height;
+            waveTime = difficulty.waveRiseTime * heightRatio;
+        }
+    }
+
+    /**
+     * Counts the tokens of the level defined by a debuff, difficulty and seed,
+     * by laying out its platforms as building it would, but without creating
+     * its tokens or keeping anything.
+     */
+    public static int countTokens(DontDrown sketch, Debuff debuff, Difficulty difficulty, long seed) {
+        return new Level(sketch, debuff, difficulty, seed, false, true).tokenCount;
+    }
+
+    /* A random value from low (inclusive) to high (exclusive), from the level's own stream */
+    private float random(float low, float high) {
+        return low + (float) layoutRandom.nextDouble() * (high - low);
     }
 
     /* Wrapper function */
     private void addToken(float x, float y) {
-        tokens.add(new Token(sketch, x, y));
+        tokenCount++;
+        if (!countingTokens) {
+            tokens.add(new Token(sketch, x, y));
+        }
     }
 
     /*
@@ -120,36 +180,60 @@ public class Level {
     }
 
     /**
-     * Randomly generates the platforms and tokens of the level.
+     * Randomly generates the platforms and tokens of the level, or of the first
+     * chunks of an endless level.
      * 
      * @param hasGround determines if the first platform should span the playable
      *                  area
      */
     private void generatePlatformsAndTokens(boolean hasGround) {
-        Platform prevPlatform = null;
-        Platform currentPlatform;
+        layoutRandom = new SplittableRandom(seed);
+        prevPlatform = null;
 
         if (hasGround) {
             currentPlatform = new Platform(sketch, Page.marginX, lowestPlatformHeight, playableWidth);
             platforms.add(currentPlatform);
         } else {
             currentPlatform = new Platform(sketch,
-                    Page.marginX + sketch.random(playableWidth - sketch.width / Platform.PF_WIDTH_DIV),
+                    Page.marginX + random(0, playableWidth - sketch.width / Platform.PF_WIDTH_DIV),
                     lowestPlatformHeight);
             platforms.add(currentPlatform);
         }
-        highestPlatform = currentPlatform;
+        topmostPlatform = currentPlatform;
+
+        diffX = 0;
+        diffY = 0;
+        goingLeft = false;
+        redHerring = false;
+        sinceRedHerring = betweenRedHerrings;
+
+        if (endless) {
+            // one chunk on screen and one above it
+            generateUpTo(topmostPlatform.pos.y - 2 * sketch.height * CHUNK_HEIGHT_MULT);
+            highestPlatform = null;
+        } else {
+            generateUpTo(highestPlatformHeight + (jumpHeight * V_MIN_JUMP_HEIGHT_MULT));
 
-        float diffX = 0, diffY = 0; // displacements between current and next platform
-        boolean goingLeft = false;
-        boolean redHerring = false; // whether or not to add an extra platform with a token
-        int sinceRedHerring = betweenRedHerrings; // the minimum number of platforms between tokens
+            // replace the highest platform with a specially coloured one
+            highestPlatform = new Platform(topmostPlatform);
+            platforms.remove(platforms.size() - 1);
+            platforms.add(highestPlatform);
+        }
 
-        while (currentPlatform.pos.y > highestPlatformHeight + (jumpHeight * V_MIN_JUMP_HEIGHT_MULT)) {
+        platformsByHeight = new VerticalIndex<>(platforms);
+        tokensByHeight = new VerticalIndex<>(tokens);
+    }
+
+    /*
+     * Continues generating platforms and tokens from the current platform until
+     * one is placed at or above y
+     */
+    private void generateUpTo(float y) {
+        while (currentPlatform.pos.y > y) {
 
             Platform nextPlatform = new Platform(sketch, 0, 0);
 
-            if (debuff.equals(Debuff.OVERWORKED) && platforms.size() > 1) {
+            if (debuff.rule.tokenOnEveryPlatform() && platforms.size() > 1) {
                 // every platform has a token
                 addToken(currentPlatform.pos.x + currentPlatform.width / 2, currentPlatform.pos.y - tokenElevation);
             }
@@ -157,10 +241,9 @@ public class Level {
             if (redHerring && prevPlatform != null) {
                 // place a token on a new platform off the optimal path
                 Platform redHerringP = new Platform(sketch, 0, 0);
-                redHerringP.initPos = placePlatform(redHerringP,
+                redHerringP.pos = placePlatform(redHerringP,
                         prevPlatform.pos.x - diffX,
                         currentPlatform.pos.y);
-                redHerringP.pos = redHerringP.initPos.copy();
                 addToken(redHerringP.pos.x + redHerringP.width / 2, redHerringP.pos.y - tokenElevation);
                 platforms.add(redHerringP);
                 sinceRedHerring = 0;
@@ -170,8 +253,8 @@ public class Level {
 
             if (currentPlatform.width == playableWidth) {
                 // first platform after the ground is a special case
-                diffY = jumpHeight * sketch.random(V_MIN_JUMP_HEIGHT_MULT, V_MAX_JUMP_HEIGHT_MULT);
-                diffX = sketch.random(0, playableWidth - nextPlatform.width);
+                diffY = jumpHeight * random(V_MIN_JUMP_HEIGHT_MULT, V_MAX_JUMP_HEIGHT_MULT);
+                diffX = random(0, playableWidth - nextPlatform.width);
             } else {
                 boolean wentUp = diffY >= jumpHeight * V_MIN_JUMP_HEIGHT_MULT;
                 boolean edgeReached = currentPlatform.pos.x < Page.marginX + nextPlatform.width
@@ -184,27 +267,27 @@ public class Level {
                     goingLeft = !goingLeft;
 
                     // reflection jump
-                    diffY = jumpHeight * sketch.random(V_MIN_JUMP_HEIGHT_MULT, V_MAX_JUMP_HEIGHT_MULT);
+                    diffY = jumpHeight * random(V_MIN_JUMP_HEIGHT_MULT, V_MAX_JUMP_HEIGHT_MULT);
                     diffX = Math.max(currentPlatform.width,
-                            jumpRange * sketch.random(H_MIN_JUMP_RANGE_MULT, H_MAX_JUMP_RANGE_MULT));
+                            jumpRange * random(H_MIN_JUMP_RANGE_MULT, H_MAX_JUMP_RANGE_MULT));
                 } else {
                     // random chance to change horizontal direction
-                    if (!redHerring && sketch.random(0f, 1f) < 0.1) {
+                    if (!redHerring && random(0f, 1f) < 0.1) {
                         goingLeft = !goingLeft;
                         redHerring = false;
                     } else {
                         redHerring = /* !redHerring && */sinceRedHerring >= betweenRedHerrings && wentUp;
                     }
 
-                    if (!wentUp && sketch.random(0f, 1f) < verticality) {
+                    if (!wentUp && random(0f, 1f) < verticality) {
                         // vertical jump (can't have two in a row)
-                        diffY = jumpHeight * sketch.random(V_MIN_JUMP_HEIGHT_MULT, V_MAX_JUMP_HEIGHT_MULT);
-                        diffX = jumpRange * sketch.random(V_MIN_JUMP_RANGE_MULT, V_MAX_JUMP_RANGE_MULT);
+                        diffY = jumpHeight * random(V_MIN_JUMP_HEIGHT_MULT, V_MAX_JUMP_HEIGHT_MULT);
+                        diffX = jumpRange * random(V_MIN_JUMP_RANGE_MULT, V_MAX_JUMP_RANGE_MULT);
                     } else {
                         // horizontal jump
-                        diffY = jumpHeight * sketch.random(H_MIN_JUMP_HEIGHT_MULT, H_MAX_JUMP_HEIGHT_MULT);
+                        diffY = jumpHeight * random(H_MIN_JUMP_HEIGHT_MULT, H_MAX_JUMP_HEIGHT_MULT);
                         diffX = Math.max(currentPlatform.width,
-                                jumpRange * sketch.random(H_MIN_JUMP_RANGE_MULT, H_MAX_JUMP_RANGE_MULT));
+                                jumpRange * random(H_MIN_JUMP_RANGE_MULT, H_MAX_JUMP_RANGE_MULT));
                     }
 
                 }
@@ -214,52 +297,84 @@ public class Level {
                 }
             }
 
-            nextPlatform.initPos = placePlatform(currentPlatform, nextPlatform, diffX, diffY);
-            nextPlatform.pos = nextPlatform.initPos.copy();
+            nextPlatform.pos = placePlatform(currentPlatform, nextPlatform, diffX, diffY);
             prevPlatform = currentPlatform;
             currentPlatform = nextPlatform;
             platforms.add(currentPlatform);
 
-            if (currentPlatform.pos.y < highestPlatform.pos.y) {
-                highestPlatform = currentPlatform;
+            if (currentPlatform.pos.y < topmostPlatform.pos.y) {
+                topmostPlatform = currentPlatform;
             }
         }
+    }
 
-        // replace the highest platform with a specially coloured one
-        highestPlatform = new Platform(highestPlatform);
-        platforms.remove(platforms.size() - 1);
-        platforms.add(highestPlatform);
+    /*
+     * Generates the next chunk of an endless level, and drops the platforms and
+     * tokens far enough below the wave to never be reached or seen again
+     */
+    private void appendChunk() {
+        int firstPlatform = platforms.size();
+        int firstToken = tokens.size();
+        generateUpTo(topmostPlatform.pos.y - sketch.height * CHUNK_HEIGHT_MULT);
+
+        List<Platform> newPlatforms = platforms.subList(firstPlatform, platforms.size());
+        List<Token> newTokens = tokens.subList(firstToken, tokens.size());
+        platformsByHeight.append(newPlatforms);
+        tokensByHeight.append(newTokens);
+        sketch.collisionDetector.append(newPlatforms, newTokens);
+        sketch.levelState.tokensAvailable += newTokens.size();
+
+        float dropBelow = sketch.risingWave.pos.y + sketch.height;
+        platforms.removeIf(platform -> platform.pos.y > dropBelow);
+        tokens.removeIf(token -> token.initPos.y > dropBelow);
+        platformsByHeight.trimBelow(dropBelow);
+        tokensByHeight.trimBelow(dropBelow);
+        sketch.collisionDetector.removeBelow(dropBelow);
     }
 
     /**
-     * Undo panning and the collection of tokens
+     * Undo panning and the collection of tokens. An endless level is
+     * regenerated from its first chunk, as lower chunks may have been dropped.
      */
     public void reset() {
         panningState = PanningState.NEITHER;
         top = topLimit;
         waveRiseRate = defaultWaveRiseRate;
 
-        if (page.lines != null) {
-            page.lines.resetMatrix();
-        }
-        for (Platform platform : platforms) {
-            platform.pos = platform.initPos.copy();
+        if (endless) {
+            platforms.clear();
+            tokens.clear();
+            generatePlatformsAndTokens(difficulty.hasGround);
         }
+
         for (Token token : tokens) {
             token.reset();
         }
     }
 
     /**
-     * Make tokens bob up and down. Pan level if needed. 
+     * The vertical translation from level coordinates to screen coordinates.
+     * Level elements keep fixed positions, and panning only moves the camera.
+     */
+    public float viewOffset() {
+        return top - topLimit;
+    }
+
+    /**
+     * Make tokens bob up and down. Pan level if needed. Generate the next chunk
+     * of an endless level once the camera is within a chunk of the top.
      */
     public void integrate() {
-        for (Token token : tokens) {
-            token.integrate();
+        for (int i = 0; i < tokens.size(); i++) {
+            tokens.get(i).integrate();
+        }
+
+        if (endless && topmostPlatform.pos.y > -viewOffset() - sketch.height * CHUNK_HEIGHT_MULT) {
+            appendChunk();
         }
 
         if (panningState.equals(PanningState.UP)) {
-            if (top + panRate >= 0f) {
+            if (!endless && top + panRate >= 0f) {
                 pan(0f - top);
                 panningState = PanningState.NEITHER;
             } else {
@@ -275,33 +390,44 @@ public class Level {
         }
     }
 
-    /* Move all level elements up or down (incl. PC and wave) */
+    /* Move the camera up or down */
     private void pan(float y) {
         top += y;
-        page.lines.translate(0, y);
-        for (Platform platform : platforms) {
-            platform.pos.y += y;
-        }
-        for (Token token : tokens) {
-            token.pos.y += y;
-        }
-        sketch.pc.pos.y += y;
-        sketch.risingWave.pos.y += y;
     }
 
 
+    /**
+     * Renders the level's page, and the platforms and tokens within the viewport.
+     * Expects the camera's translation to have been applied.
+     */
     public void render() {
-        page.render();
+        if (endless) {
+            // redraw the page at the line nearest the camera, so that its lines seem to continue forever
+            float shift = (float) Math.floor(-viewOffset() / page.lineGap) * page.lineGap + page.lineGap;
+            sketch.pushMatrix();
+            sketch.translate(0, shift);
+            page.render();
+            sketch.popMatrix();
+        } else {
+            page.render();
+        }
 
-        int i = 0;
-        for (Platform platform : platforms) {
+        // visible band in level coordinates, padded to cover bobbing tokens
+        float margin = 2 * Token.height;
+        float bandTop = -viewOffset() - margin;
+        float bandBottom = -viewOffset() + sketch.height + margin;
+
+        int end = platformsByHeight.lowestAbove(bandTop);
+        for (int i = platformsByHeight.lowestAtOrAbove(bandBottom); i < end; i++) {
+            Platform platform = platformsByHeight.get(i);
             platform.render();
             if (sketch.debugging)
-                sketch.text(i++, platform.pos.x, platform.pos.y);
+                sketch.text(i, platform.pos.x, platform.pos.y);
         }
 
-        for (Token token : tokens) {
-            token.render();
+        end = tokensByHeight.lowestAbove(bandTop);
+        for (int i = tokensByHeight.lowestAtOrAbove(bandBottom); i < end; i++) {
+            tokensByHeight.get(i).render();
         }
     }
 
@@ -0,0 +1,53 @@
+/**
+ * An entry in the level selector. A level is fully defined by its debuff,
+ * difficulty and seed, so its platforms and tokens are only built when it is
+ * played, and can be discarded once another level is started. Its token
+ * count is worked out in the background from its layout alone, so that
+ * startup doesn't depend on the number of levels.
+ */
+public class LevelDescriptor {
+
+    public static final int UNKNOWN = -1;
+
+    public final Debuff debuff;
+    public final Difficulty difficulty;
+    public final long seed;
+
+    public volatile int tokenCount = UNKNOWN; // unknown until counted or first built
+
+    // high score
+    public int highScore = 0;
+    public float timeLeft = -123; // value for which the level selector menu does not show seconds to spare
+
+    private Level level = null; // null until built, or once evicted
+
+    public LevelDescriptor(Debuff debuff, Difficulty difficulty, long seed) {
+        this.debuff = debuff;
+        this.difficulty = difficulty;
+        this.seed = seed;
+    }
+
+    /**
+     * Counts the level's tokens without building it, unless they are already
+     * known. Safe to call off the animation thread.
+     */
+    public void countTokens(DontDrown sketch) {
+        if (tokenCount == UNKNOWN) {
+            tokenCount = Level.countTokens(sketch, debuff, difficulty, seed);
+        }
+    }
+
+    /** Returns the level, building it if it has not been built or has been evicted. */
+    public Level build(DontDrown sketch) {
+        if (level == null) {
+            level = new Level(sketch, debuff, difficulty, seed);
+            tokenCount = level.tokens.size();
+        }
+        return level;
+    }
+
+    /** Discards the built level. It will be rebuilt identically if needed again. */
+    public void evict() {
+        level = null;
+    }
+}
@@ -29,7 +29,7 @@ public class Page {
         startAtTop = true; // doesn't matter because page matches viewport height
         this.sketch = sketch;
         height = sketch.height;
-        this.topLineY = sketch.height - height + sketch.scoreOverlay.endOfPadding;
+        this.topLineY = sketch.height - height + ScoreOverlay.paddingHeight(sketch);
         this.lineGap = sketch.width / PlayerCharacter.PC_DIAMETER_DIV;
     }
 
@@ -39,7 +39,7 @@ public class Page {
         this.sketch = sketch;
         this.startAtTop = startAtTop;
         this.height = height;
-        this.topLineY = sketch.height - height + sketch.scoreOverlay.endOfPadding;
+        this.topLineY = sketch.height - height + ScoreOverlay.paddingHeight(sketch);
         this.lineGap = sketch.width / PlayerCharacter.PC_DIAMETER_DIV;
     }
 
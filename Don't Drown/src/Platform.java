@@ -7,12 +7,12 @@ public class Platform extends AbstractDrawable {
     public static final float PF_WIDTH_DIV = 10f;
     private static final float PF_HEIGHT_DIV = 7f; // as a ratio of width
 
-    public PVector initPos;
     public final float height;
     public final float width;
 
-    private static PShape[][] staticTokensDefaultWidth;
-    private static PShape[][] staticTokensTop; // coloured differently to other tokens 
+    // may be first needed by the arcade generator thread
+    private static volatile SpriteTable staticTokensDefaultWidth;
+    private static volatile SpriteTable staticTokensTop; // coloured differently to other tokens 
 
     private static final int STROKE_COLOUR = 0xDDD79B00;
     private static final int FILL_COLOUR = 0xAAFFE6CC;
@@ -24,7 +24,8 @@ public class Platform extends AbstractDrawable {
         this.width = sketch.width / PF_WIDTH_DIV;
         this.height = sketch.width / PF_WIDTH_DIV / PF_HEIGHT_DIV;
         this.pos = new PVector(x, y);
-        this.initPos = pos.copy();
+        setRasterBounds(-rasterPadding(), -rasterPadding(), width + 2 * rasterPadding(),
+                height + 2 * rasterPadding());
     }
 
     public Platform(DontDrown sketch, float x, float y, float width) {
@@ -32,7 +33,8 @@ public class Platform extends AbstractDrawable {
         this.width = width;
         this.height = sketch.width / PF_WIDTH_DIV / PF_HEIGHT_DIV;
         this.pos = new PVector(x, y);
-        this.initPos = pos.copy();
+        setRasterBounds(-rasterPadding(), -rasterPadding(), width + 2 * rasterPadding(),
+                height + 2 * rasterPadding());
     }
 
     /**
@@ -46,47 +48,50 @@ public class Platform extends AbstractDrawable {
         this.width = source.width;
         this.height = source.height;
         this.pos = source.pos.copy();
-        this.initPos = pos.copy();
+        setRasterBounds(-rasterPadding(), -rasterPadding(), width + 2 * rasterPadding(),
+                height + 2 * rasterPadding());
     }
 
-    protected static PShape[][] generateTokens(DontDrown sketch, float width, int strokeColour, int fillColour) {
+    /**
+     * Returns the tokens of platforms of the given width and colours, which are
+     * shared by every platform that looks the same, e.g. every EASY level's
+     * ground.
+     */
+    protected static SpriteTable generateTokens(DontDrown sketch, float width, int strokeColour, int fillColour) {
         float height = sketch.width / PF_WIDTH_DIV / PF_HEIGHT_DIV;
-        PShape[][] tokens = new PShape[StressAndTokenState.ABS_MAX_STRESS + 1][VARIANT_TOKENS];
-
-        sketch.colorModeRGB();
         float thickStrokeWeight = 2 * sketch.RSW_DEF;
+        String name = "platform " + width + "x" + height + " " + Integer.toHexString(strokeColour) + " "
+                + Integer.toHexString(fillColour);
 
-        for (int i = 0; i <= StressAndTokenState.ABS_MAX_STRESS; i++) {
-            sketch.levelState.stress = i;
-            sketch.levelState.sketchiness();
-
-            for (int j = 0; j < VARIANT_TOKENS; j++) {
-                PShape token = new PShape(PConstants.GROUP);
+        return SpriteTable.shared(sketch, name, (drawer, variant) -> {
+            PShape token = drawer.group();
 
-                // add basic shape
-                sketch.roughStrokeWeight = sketch.RSW_DEF;
-                token.addChild(sketch.handDraw(PConstants.QUAD, strokeColour, fillColour,
-                        2 * sketch.RSW_DEF, sketch.RSW_DEF, width - 2 * sketch.RSW_DEF, sketch.RSW_DEF,
-                        width - (2 * sketch.RSW_DEF + width / 16), height, 2 * sketch.RSW_DEF + width / 16, height));
+            // add basic shape
+            token.addChild(drawer.handDraw(PConstants.QUAD, strokeColour, fillColour,
+                    2 * sketch.RSW_DEF, sketch.RSW_DEF, width - 2 * sketch.RSW_DEF, sketch.RSW_DEF,
+                    width - (2 * sketch.RSW_DEF + width / 16), height, 2 * sketch.RSW_DEF + width / 16, height));
 
-                // add extra thick top line
-                sketch.roughStrokeWeight = thickStrokeWeight;
-                token.addChild(sketch.handDrawLine(strokeColour, new PVector(0, 0), new PVector(width, 0)));
+            // add extra thick top line
+            token.addChild(drawer.withWeight(thickStrokeWeight).handDrawLine(strokeColour, new PVector(0, 0), new PVector(width, 0)));
 
-                tokens[i][j] = token;
-            }
-        }
-        return tokens;
+            return drawer.mesh(token);
+        });
     }
 
-    protected static PShape[][] generateTokens(DontDrown sketch) {
+    protected static synchronized SpriteTable generateTokens(DontDrown sketch) {
+        if (staticTokensDefaultWidth != null) {
+            return staticTokensDefaultWidth; // generated by another thread since the caller checked
+        }
         float width = sketch.width / PF_WIDTH_DIV;
 
         staticTokensDefaultWidth = generateTokens(sketch, width, STROKE_COLOUR, FILL_COLOUR);
         return staticTokensDefaultWidth;
     }
 
-    protected static PShape[][] generateTopTokens(DontDrown sketch) {
+    protected static synchronized SpriteTable generateTopTokens(DontDrown sketch) {
+        if (staticTokensTop != null) {
+            return staticTokensTop; // generated by another thread since the caller checked
+        }
         float width = sketch.width / PF_WIDTH_DIV;
 
         staticTokensTop = generateTokens(sketch, width, TOP_STROKE_COLOUR, TOP_FILL_COLOUR);
@@ -94,7 +99,8 @@ public class Platform extends AbstractDrawable {
     }
 
     protected boolean onScreen() {
-        return pos.y <= sketch.height && pos.y >= height;
+        float screenY = pos.y + sketch.level.viewOffset();
+        return screenY <= sketch.height && screenY >= height;
     }
 
     public void render() {
@@ -27,7 +27,7 @@ public class PlayerCharacter extends AbstractDrawable {
     private static final int PC_COYOTE_TIME = 2; // frames to jump after falling off the end of a platform
 
     // rendering
-    private static PShape[][] staticTokens = null;
+    private static SpriteTable staticTokens = null;
     public static final float PC_MIN_HUE = 280f;
     public static final float PC_MAX_HUE = 360f;
     public static final float PC_MIN_SAT = 0.2f;
@@ -36,6 +36,9 @@ public class PlayerCharacter extends AbstractDrawable {
     public static final float PC_MAX_LIGHT = 0.9f;
     public static final float PC_STROKE_ALPHA = 1f;
     public static final float PC_FILL_ALPHA = 0.85f;
+    // stress rows per token bucket, i.e. one bucket per step of stroke shakiness
+    public static final int PC_ROWS_PER_BUCKET = (StressAndTokenState.ABS_MAX_STRESS
+            - StressAndTokenState.DEFAULT_STRESS_EFFECT_THRESHOLD) / (Sketcher.RSS_MAX - Sketcher.RSS_MIN);
     public static float diameter;
     public static float radius;
 
@@ -67,6 +70,8 @@ public class PlayerCharacter extends AbstractDrawable {
     public PVector resultant = new PVector();
     public static final float I_MASS = 1 / 15f; // inverse mass
 
+    private final int[] layerColours = new int[2]; // fill and outline, set from the stress colour LUTs when drawn
+
     // frame counters
     private int jumpMemoryCounter = 0; // trying to jump just before hitting the ground
     private int hangCounter = 0; // peak of jump
@@ -244,8 +249,8 @@ public class PlayerCharacter extends AbstractDrawable {
         }
 
         // calulate acceleration and velocity from resultant force
-        PVector acc = resultant.mult(I_MASS).mult(incr);
-        vel.add(acc);
+        // (in place, to avoid allocating every frame)
+        vel.add(resultant.mult(I_MASS * incr));
 
         if (fallState.equals(FallState.RISING) && vel.y >= 0) {
             // if at peak of jump (i.e. start of hang time)
@@ -264,7 +269,7 @@ public class PlayerCharacter extends AbstractDrawable {
         }
 
         // reset resultant force
-        resultant = new PVector();
+        resultant.set(0, 0);
     }
 
     /** Move the PC, bouncing them off the edge of the playable area if needed. */
@@ -355,35 +360,27 @@ public class PlayerCharacter extends AbstractDrawable {
         this.pos.y = y;
         this.vel.x = 0;
         this.vel.y = 0;
+        resultant.set(0, 0);
+        jumpMemoryCounter = 0;
+        hangCounter = 0;
         this.steer(SteerState.NEITHER);
         moveState = MoveState.AT_REST;
         this.steerSinceLand = true;
         this.fall(true);
     }
 
-    protected static PShape[][] generateTokens(DontDrown sketch) {
-        staticTokens = new PShape[StressAndTokenState.ABS_MAX_STRESS + 1][VARIANT_TOKENS];
+    protected static SpriteTable generateTokens(DontDrown sketch) {
         diameter = sketch.width / PC_DIAMETER_DIV;
         radius = diameter / 2f;
 
-        sketch.colorModeHSB();
-        sketch.roughStrokeWeight = sketch.RSW_DEF;
-        StressAndTokenState state = sketch.levelState;
-
-        for (int i = 0; i <= StressAndTokenState.ABS_MAX_STRESS; i++) {
-            state.stress = i;
-            state.sketchiness();
-            state.calcStressHSBColour();
-
-            int fillColour = sketch.color(state.stressHSBColour[0], state.stressHSBColour[1], state.stressHSBColour[2],
-                    PC_FILL_ALPHA);
-            int strokeColour = sketch.color(state.stressHSBColour[0], state.stressHSBColour[1],
-                    state.stressHSBColour[2] - PC_MIN_LIGHT / 2, PC_STROKE_ALPHA);
-            for (int j = 0; j < VARIANT_TOKENS; j++) {
-                staticTokens[i][j] = sketch.handDraw(PConstants.ELLIPSE, strokeColour, fillColour, 20, 0, 0, diameter,
-                        diameter);
-            }
-        }
+        // only the sketchiness of the tokens depends on stress, as they are coloured when drawn
+        staticTokens = SpriteTable.shared(sketch, "player", StressAndTokenState.ABS_MAX_STRESS + 1,
+                PC_ROWS_PER_BUCKET, 1f, (drawer, variant) -> {
+                    PShape token = drawer.mesh(drawer.handDraw(PConstants.ELLIPSE, 0xFF000000, 0xFFFFFFFF,
+                            20, 0, 0, diameter, diameter));
+                    token.disableStyle();
+                    return token;
+                });
 
         return staticTokens;
     }
@@ -393,6 +390,9 @@ public class PlayerCharacter extends AbstractDrawable {
     }
 
     public void render() {
-        renderAD();
+        int colour = StressAndTokenState.colourIndex(state.stress);
+        layerColours[0] = state.pcFillColours[colour];
+        layerColours[1] = state.pcStrokeColours[colour];
+        renderADTinted(layerColours);
     }
 }
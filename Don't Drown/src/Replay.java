@@ -0,0 +1,332 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * A recorded attempt at a level: the level's debuff, difficulty and seed, the
+ * player's inputs stamped with the tick of the level at which they were
+ * applied, and how the attempt ended. The simulation is deterministic, so
+ * playing the inputs back into a Simulation of the same dimensions repeats
+ * the attempt, e.g. as a performance scenario or to reproduce a bug.
+ *
+ * A file holds a header of varints, followed by one varint per input of its
+ * tick's delta from the previous input's and the input itself, so that most
+ * inputs take a byte or two.
+ */
+public class Replay {
+
+    private static final int MAGIC = 0x44445250; // "DDRP"
+    private static final int VERSION = 1;
+    private static final int INPUT_BITS = 3; // of each input's varint, beneath its tick delta
+    private static final int MAX_VARINT_BYTES = 10;
+
+    // determinism checks
+    private static final int[] CHECK_WARM_UP_TICKS = { 17, 150, 299 }; // not multiples of any tick period
+    private static final long CHECK_SEED = 1;
+    private static final int CHECK_INPUTS = 100;
+    private static final int CHECK_MAX_INPUT_GAP = 12; // ticks
+
+    /** An input that changes the level being played. */
+    public enum Input {
+        STEER_LEFT,
+        STEER_RIGHT,
+        STEER_NEITHER,
+        JUMP,
+        DROP,
+        EXTEND,
+        ;
+
+        /** Applies the input to the sketch's current level. */
+        public void apply(DontDrown sketch) {
+            switch (this) {
+                case STEER_LEFT:
+                    sketch.pc.steer(PlayerCharacter.SteerState.LEFT);
+                    break;
+                case STEER_RIGHT:
+                    sketch.pc.steer(PlayerCharacter.SteerState.RIGHT);
+                    break;
+                case STEER_NEITHER:
+                    sketch.pc.steer(PlayerCharacter.SteerState.NEITHER);
+                    break;
+                case JUMP:
+                    sketch.pc.jump();
+                    break;
+                case DROP:
+                    sketch.pc.drop();
+                    break;
+                case EXTEND:
+                    sketch.extend();
+                    break;
+            }
+        }
+    }
+
+    public final int width;
+    public final int height;
+    public final Debuff debuff;
+    public final Difficulty difficulty;
+    public final long seed;
+    public final boolean endless;
+    public final CollisionDetector.Outcome outcome; // NONE if the attempt was abandoned
+    public final int length; // in ticks
+    private final int[] ticks; // of each input, since the start of the level
+    private final Input[] inputs;
+
+    public Replay(int width, int height, Level level, CollisionDetector.Outcome outcome, int length, int[] ticks,
+            Input[] inputs) {
+        this(width, height, level.debuff, level.difficulty, level.seed, level.endless, outcome, length, ticks,
+                inputs);
+    }
+
+    private Replay(int width, int height, Debuff debuff, Difficulty difficulty, long seed, boolean endless,
+            CollisionDetector.Outcome outcome, int length, int[] ticks, Input[] inputs) {
+        this.width = width;
+        this.height = height;
+        this.debuff = debuff;
+        this.difficulty = difficulty;
+        this.seed = seed;
+        this.endless = endless;
+        this.outcome = outcome;
+        this.length = length;
+        this.ticks = ticks;
+        this.inputs = inputs;
+    }
+
+    /** The number of recorded inputs. */
+    public int inputCount() {
+        return inputs.length;
+    }
+
+    /* Appends an unsigned LEB128 varint */
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    /* Writes out the buffer if it may not fit another varint */
+    private static void makeRoom(FileChannel channel, ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 2 * MAX_VARINT_BYTES) {
+            drain(channel, buffer);
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the replay to a channel through a buffer, which is left empty.
+     * The buffer must hold at least 64 bytes.
+     */
+    public void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        putVarint(buffer, VERSION);
+        putVarint(buffer, width);
+        putVarint(buffer, height);
+        putVarint(buffer, debuff.ordinal());
+        putVarint(buffer, difficulty.ordinal());
+        buffer.putLong(seed);
+        buffer.put((byte) (endless ? 1 : 0));
+        putVarint(buffer, outcome.ordinal());
+        putVarint(buffer, length);
+        putVarint(buffer, inputs.length);
+
+        int previous = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            makeRoom(channel, buffer);
+            putVarint(buffer, ((long) (ticks[i] - previous) << INPUT_BITS) | inputs[i].ordinal());
+            previous = ticks[i];
+        }
+        drain(channel, buffer);
+    }
+
+    /** Reads a replay written by write(). */
+    public static Replay read(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (buffer.getInt() != MAGIC || getVarint(buffer) != VERSION) {
+                throw new IllegalArgumentException("not a replay of this version");
+            }
+            int width = (int) getVarint(buffer);
+            int height = (int) getVarint(buffer);
+            Debuff debuff = Debuff.values()[(int) getVarint(buffer)];
+            Difficulty difficulty = Difficulty.values()[(int) getVarint(buffer)];
+            long seed = buffer.getLong();
+            boolean endless = buffer.get() != 0;
+            CollisionDetector.Outcome outcome = CollisionDetector.Outcome.values()[(int) getVarint(buffer)];
+            int length = (int) getVarint(buffer);
+
+            int[] ticks = new int[(int) getVarint(buffer)];
+            Input[] inputs = new Input[ticks.length];
+            int tick = 0;
+            for (int i = 0; i < ticks.length; i++) {
+                long event = getVarint(buffer);
+                tick += (int) (event >>> INPUT_BITS);
+                ticks[i] = tick;
+                inputs[i] = Input.values()[(int) (event & ((1 << INPUT_BITS) - 1))];
+            }
+            return new Replay(width, height, debuff, difficulty, seed, endless, outcome, length, ticks, inputs);
+        } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated or corrupt replay", e);
+        }
+    }
+
+    /** Builds the replay's level. */
+    public Level buildLevel(DontDrown sketch) {
+        return new Level(sketch, debuff, difficulty, seed, endless);
+    }
+
+    /** A bot that applies the recorded inputs at the ticks they were recorded at. */
+    public Simulation.Bot player() {
+        return new Simulation.Bot() {
+            private int next = 0;
+
+            @Override
+            public void control(Simulation simulation) {
+                DontDrown sketch = simulation.sketch;
+                int tick = sketch.levelTick();
+                while (next < inputs.length && ticks[next] <= tick) {
+                    inputs[next++].apply(sketch);
+                }
+            }
+        };
+    }
+
+    /**
+     * Plays the replay in a simulation, which must have the replay's
+     * dimensions, for as long as the attempt lasted.
+     *
+     * @return the way in which the level ended, or NONE if it didn't
+     */
+    public CollisionDetector.Outcome play(Simulation simulation) {
+        simulation.start(buildLevel(simulation.sketch));
+        return simulation.play(player(), length);
+    }
+
+    /* The end state of the replay when played after the given number of ticks of other play */
+    private String endState(Simulation simulation, int warmUpTicks) {
+        simulation.sketch.tick += warmUpTicks;
+        CollisionDetector.Outcome outcome = play(simulation);
+        DontDrown sketch = simulation.sketch;
+        return String.format(Locale.ROOT, "%s after %d ticks, stress %s, pc at %s", outcome, sketch.levelTick(),
+                sketch.levelState.stress, sketch.pc.pos);
+    }
+
+    /**
+     * Plays the replay after different numbers of ticks, and returns a
+     * description of how they differed, or null if they all ended the same.
+     */
+    public String checkDeterminism(Simulation simulation) {
+        String expected = endState(simulation, 0);
+        for (int warmUpTicks : CHECK_WARM_UP_TICKS) {
+            String actual = endState(simulation, warmUpTicks);
+            if (!actual.equals(expected)) {
+                return "after " + warmUpTicks + " more ticks, " + actual + " rather than " + expected;
+            }
+        }
+        return null;
+    }
+
+    /* A replay of random inputs on a level of each debuff, for checking determinism without recordings */
+    private static Replay[] generated(int width, int height) {
+        SplittableRandom random = new SplittableRandom(CHECK_SEED);
+        Debuff[] debuffs = Debuff.values();
+        Replay[] replays = new Replay[debuffs.length];
+        for (int d = 0; d < debuffs.length; d++) {
+            int[] ticks = new int[CHECK_INPUTS];
+            Input[] inputs = new Input[CHECK_INPUTS];
+            int tick = 0;
+            for (int i = 0; i < CHECK_INPUTS; i++) {
+                tick += random.nextInt(CHECK_MAX_INPUT_GAP);
+                ticks[i] = tick;
+                // steering and jumping, with the odd extension
+                inputs[i] = random.nextInt(CHECK_INPUTS) == 0 ? Input.EXTEND : Input.values()[random.nextInt(4)];
+            }
+            replays[d] = new Replay(width, height, debuffs[d], Difficulty.EASY, random.nextLong(), false,
+                    CollisionDetector.Outcome.NONE, tick + CHECK_MAX_INPUT_GAP, ticks, inputs);
+        }
+        return replays;
+    }
+
+    /**
+     * Plays replay files and prints whether each ended as recorded, and how
+     * long it took to simulate. Every replay must have the same dimensions.
+     *
+     * With --check, instead plays each replay after different numbers of ticks
+     * of other play, and exits with status 1 unless each ends the same every
+     * time. Without files, checks random inputs on a level of each debuff.
+     *
+     * Arguments: [--check] [replay files]
+     */
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        boolean check = args.length > 0 && args[0].equals("--check");
+        String[] files = check ? Arrays.copyOfRange(args, 1, args.length) : args;
+        if (check && files.length == 0) {
+            int failures = 0;
+            Simulation simulation = new Simulation(Simulation.DEFAULT_WIDTH, Simulation.DEFAULT_HEIGHT, 0);
+            for (Replay replay : generated(Simulation.DEFAULT_WIDTH, Simulation.DEFAULT_HEIGHT)) {
+                String difference = replay.checkDeterminism(simulation);
+                System.out.println(replay.debuff + ": " + (difference == null ? "deterministic" : difference));
+                failures += difference == null ? 0 : 1;
+            }
+            System.exit(failures == 0 ? 0 : 1);
+        }
+
+        Simulation simulation = null;
+        int failures = 0;
+        for (String arg : files) {
+            Replay replay = read(Paths.get(arg));
+            if (simulation == null) {
+                simulation = new Simulation(replay.width, replay.height, 0);
+            } else if (simulation.sketch.width != replay.width || simulation.sketch.height != replay.height) {
+                System.err.println("Skipping " + arg + ", which was recorded at another size");
+                continue;
+            }
+
+            if (check) {
+                String difference = replay.checkDeterminism(simulation);
+                System.out.println(arg + ": " + (difference == null ? "deterministic" : difference));
+                failures += difference == null ? 0 : 1;
+                continue;
+            }
+
+            long start = System.nanoTime();
+            CollisionDetector.Outcome outcome = replay.play(simulation);
+            float millis = (System.nanoTime() - start) / 1e6f;
+            int ticks = simulation.sketch.levelTick();
+            System.out.println(String.format(Locale.ROOT, "%s: %s %s, recorded %s after %d ticks, replayed %s after %d ticks in %.1f ms",
+                    arg, replay.debuff, replay.difficulty, replay.outcome, replay.length, outcome, ticks, millis));
+        }
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
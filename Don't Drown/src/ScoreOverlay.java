@@ -7,7 +7,7 @@ public class ScoreOverlay {
 
     public static class StressBar {
 
-        public static final int STRESS_BAR_RESOLUTION = 10;
+        public static final int STRESS_BAR_RESOLUTION = 10; // scales down the stress used for the outer box's sketchiness
         private static final float STRESS_BAR_WIDTH_DIV = 2f;
         private static final float STRESS_BAR_HEIGHT_DIV = 20f; // as a ratio of width
 
@@ -26,36 +26,30 @@ public class ScoreOverlay {
         }
 
         public static class StressBarOuter extends AbstractDrawable {
-            private static PShape[][] staticTokens = null;
+            private static SpriteTable staticTokens = null;
 
             protected StressBarOuter(DontDrown sketch) {
                 super(sketch, (staticTokens == null ? generateTokens(sketch) : staticTokens));
                 pos = new PVector(0, 0);
+                setRasterBounds(sketch.width / 2f - width / 2 - rasterPadding(), height - rasterPadding(),
+                        width + 2 * rasterPadding(), height + 2 * rasterPadding());
             }
 
-            protected static PShape[][] generateTokens(DontDrown sketch) {
-                staticTokens = new PShape[(StressAndTokenState.ABS_MAX_STRESS + 1)][VARIANT_TOKENS];
-
+            protected static SpriteTable generateTokens(DontDrown sketch) {
                 width = sketch.width / STRESS_BAR_WIDTH_DIV;
                 height = width / STRESS_BAR_HEIGHT_DIV;
                 PVector pos = new PVector(sketch.width / 2f - width / 2, height);
 
-                for (int i = 0; i <= StressAndTokenState.ABS_MAX_STRESS; i++) {
-                    sketch.levelState.stress = i / (float) STRESS_BAR_RESOLUTION;
-                    sketch.levelState.sketchiness();
-                    sketch.levelState.calcStressHSBColour();
-
-                    for (int j = 0; j < VARIANT_TOKENS; j++) {
-                        PShape token = new PShape(PConstants.GROUP);
+                staticTokens = SpriteTable.shared(sketch, "stress bar outer", StressAndTokenState.ABS_MAX_STRESS + 1,
+                        SpriteTable.DEFAULT_ROWS_PER_BUCKET, 1f / STRESS_BAR_RESOLUTION, (drawer, variant) -> {
+                            PShape token = drawer.group();
 
-                        /* outer box */
-                        sketch.colorModeRGB();
-                        token.addChild(sketch.handDraw(PConstants.RECT, 0xFF000000, 0xFFFFFFFF,
-                                pos.x, pos.y, width, height));
+                            /* outer box */
+                            token.addChild(drawer.handDraw(PConstants.RECT, 0xFF000000, 0xFFFFFFFF,
+                                    pos.x, pos.y, width, height));
 
-                        staticTokens[i][j] = token;
-                    }
-                }
+                            return drawer.mesh(token);
+                        });
 
                 return staticTokens;
             }
@@ -73,52 +67,67 @@ public class ScoreOverlay {
         }
 
         public static class StressBarFill extends AbstractDrawable {
-            private static PShape[][] staticTokens = null;
+            private static SpriteTable staticTokens = null;
+
+            private static float fillX;
+            private static float fillWidth;
 
             protected StressBarFill(DontDrown sketch) {
                 super(sketch, (staticTokens == null ? generateTokens(sketch) : staticTokens));
                 pos = new PVector(0, 0);
             }
 
-            protected static PShape[][] generateTokens(DontDrown sketch) {
-                final int maxStressIndex = (StressAndTokenState.ABS_MAX_STRESS + 1) * STRESS_BAR_RESOLUTION;
-                staticTokens = new PShape[maxStressIndex][VARIANT_TOKENS];
-
+            /**
+             * Generates full-width fills, which are clipped to the current stress and
+             * coloured when drawn. Each token is a group of the fill's body and a rough
+             * end cap, which is drawn at the clipped edge.
+             */
+            protected static SpriteTable generateTokens(DontDrown sketch) {
                 int outlineWeight = (int) (height / 10);
                 PVector pos = new PVector(sketch.width / 2f - width / 2, height);
+                fillX = pos.x + outlineWeight;
+                fillWidth = width - 2 * outlineWeight;
+                float fillY = pos.y + outlineWeight;
+                float fillHeight = height - 2 * outlineWeight;
+
+                staticTokens = SpriteTable.shared(sketch, "stress bar fill", (drawer, variant) -> {
+                    HandDrawer outline = drawer.withWeight(outlineWeight);
 
-                for (int i = 0; i < maxStressIndex; i++) {
-                    sketch.levelState.stress = i / (float) STRESS_BAR_RESOLUTION;
-                    sketch.levelState.sketchiness();
-                    sketch.levelState.calcStressHSBColour();
-
-                    for (int j = 0; j < VARIANT_TOKENS; j++) {
-                        PShape token = new PShape(PConstants.GROUP);
-                        sketch.roughStrokeWeight = outlineWeight;
-
-                        /* bar fill */
-                        if (sketch.levelState.stress > 0) {
-                            sketch.colorModeHSB();
-                            float[] colour = sketch.levelState.stressHSBColour;
-                            int fillColour = sketch.color(colour[0], colour[1], colour[2]);
-                            token.addChild(
-                                    sketch.handDraw(PConstants.RECT, fillColour, fillColour, pos.x + outlineWeight,
-                                            pos.y + outlineWeight,
-                                            (width - 2 * outlineWeight)
-                                                    * (sketch.levelState.stress / StressAndTokenState.ABS_MAX_STRESS),
-                                            height - 2 * outlineWeight));
-                        }
-
-                        staticTokens[i][j] = token;
-                    }
-                }
+                    PShape token = drawer.group();
+                    token.addChild(outline.handDraw(PConstants.RECT, 0xFFFFFFFF, 0xFFFFFFFF,
+                            fillX, fillY, fillWidth, fillHeight));
+                    token.addChild(outline.handDrawLine(0xFFFFFFFF,
+                            new PVector(0, fillY), new PVector(0, fillY + fillHeight)));
+
+                    // use the fill colour set at draw time
+                    token.disableStyle();
+                    return token;
+                });
 
                 return staticTokens;
             }
 
             @Override
             protected boolean onScreen() {
-                return true;
+                return state.stress > 0;
+            }
+
+            @Override
+            protected void drawStressToken(PShape token) {
+                float fillEnd = fillX + fillWidth * (state.stress / StressAndTokenState.ABS_MAX_STRESS);
+                float[] colour = state.stressHSBColour;
+
+                sketch.colorModeHSB();
+                sketch.fill(colour[0], colour[1], colour[2]);
+
+                // body, clipped to the current stress
+                sketch.clip(0, 0, fillEnd, sketch.height);
+                sketch.shape(token.getChild(0), pos.x, pos.y);
+                sketch.noClip();
+
+                // end cap
+                sketch.shape(token.getChild(1), pos.x + fillEnd, pos.y);
+                sketch.colorModeRGB();
             }
 
             @Override
@@ -136,30 +145,23 @@ public class ScoreOverlay {
     /* To frame the current score during a level */
     private static class BigToken extends AbstractDrawable {
 
-        private static PShape[][] staticTokens = null;
+        private static SpriteTable staticTokens = null;
 
         protected BigToken(DontDrown sketch) {
             super(sketch, (staticTokens == null ? generateTokens(sketch) : staticTokens));
             pos = new PVector(sketch.width - StressBar.width / 3, 1.5f * StressBar.height);
+            setRasterBounds(-StressBar.height - rasterPadding(), -StressBar.height - rasterPadding(),
+                    2 * (StressBar.height + rasterPadding()), 2 * (StressBar.height + rasterPadding()));
         }
 
-        protected static PShape[][] generateTokens(DontDrown sketch) {
-            staticTokens = new PShape[StressAndTokenState.ABS_MAX_STRESS + 1][VARIANT_TOKENS];
-            sketch.colorModeRGB();
-            sketch.roughStrokeWeight = sketch.RSW_DEF;
-
-            for (int i = 0; i <= StressAndTokenState.ABS_MAX_STRESS; i++) {
-                sketch.levelState.stress = i;
-                sketch.levelState.sketchiness();
-
-                for (int j = 0; j < VARIANT_TOKENS; j++) {
-                    staticTokens[i][j] = sketch.handDraw(PConstants.QUAD, Token.T_STROKE_COLOUR, Token.T_FILL_COLOUR,
-                            0, -StressBar.height,
-                            StressBar.height, 0,
-                            0, StressBar.height,
-                            -StressBar.height, 0);
-                }
-            }
+        protected static SpriteTable generateTokens(DontDrown sketch) {
+            staticTokens = SpriteTable.shared(sketch, "big token", (drawer, variant) -> {
+                return drawer.mesh(drawer.handDraw(PConstants.QUAD, Token.T_STROKE_COLOUR, Token.T_FILL_COLOUR,
+                        0, -StressBar.height,
+                        StressBar.height, 0,
+                        0, StressBar.height,
+                        -StressBar.height, 0));
+            });
 
             return staticTokens;
         }
@@ -190,19 +192,28 @@ public class ScoreOverlay {
         levelInfoFont = sketch.createFont(DontDrown.FONT_PATH, sketch.width / LEVEL_INFO_TEXT_DIV);
         stressBar = new StressBar(sketch);
         bigToken = new BigToken(sketch);
-        this.endOfPadding = StressBar.height * 3;
+        this.endOfPadding = paddingHeight(sketch);
+    }
+
+    /**
+     * The height of the space kept clear for the overlay at the top of the
+     * screen. Depends only on the sketch's dimensions, so can be used without
+     * creating an overlay.
+     */
+    public static float paddingHeight(DontDrown sketch) {
+        return sketch.width / StressBar.STRESS_BAR_WIDTH_DIV / StressBar.STRESS_BAR_HEIGHT_DIV * 3;
     }
 
     public void render() {
         // stress bar
-        if (!sketch.level.debuff.equals(Debuff.LACK_CONTRAST)) {
+        if (sketch.level.debuff.rule.showsStressBar()) {
             stressBar.render();
         }
 
         // level info
         if (sketch.arcadeMode) {
             sketch.colorModeRGB();
-            sketch.fill(sketch.level.debuff.equals(Debuff.TUNNEL_VISION) ? 0xFFFFFFFF : 0xFF000000);
+            sketch.fill(sketch.level.debuff.rule.textColour());
             sketch.textAlign(PConstants.CENTER, PConstants.TOP);
             sketch.textFont(levelInfoFont);
             sketch.text(sketch.level.debuff.label + ": " + sketch.level.difficulty.name().replace("_", " "),
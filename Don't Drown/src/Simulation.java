@@ -0,0 +1,326 @@
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Builds and plays levels without a window, e.g. for bots or for validating
+ * levels in bulk. Uses a sketch that is never launched, so no fonts, music or
+ * shapes are loaded: tokens are only generated when they are first rendered,
+ * which a simulation never does.
+ *
+ * The dimensions of level elements are static, so every simulation in a JVM
+ * should use the same width and height.
+ */
+public class Simulation {
+
+    public static final int DEFAULT_WIDTH = 1728;
+    public static final int DEFAULT_HEIGHT = 972;
+    private static final int ALLOCATION_CHECK_WARM_UP_STEPS = 20_000; // enough for the step to be compiled
+    private static final int ALLOCATION_CHECK_STEPS = 10_000;
+    private static final int ALLOCATION_CHECK_ROUNDS = 3; // the JIT can still allocate once in a while after warming up
+
+    /** Steers the player each tick, e.g. by calling pc.steer() and pc.jump(). */
+    public interface Bot {
+        void control(Simulation simulation);
+    }
+
+    /**
+     * A bot that climbs to the highest platform it can reach from its surface,
+     * i.e. one at or above it that a jump at full speed from the surface's
+     * edge would land on. It runs until a jump from where it is would come
+     * down on the target, taking a run-up if it gets to the edge too slowly,
+     * and steers in the air to land on it. It only leaves a surface by jumping
+     * at a target: without one it waits, and it brakes before any edge that it
+     * can't jump from.
+     *
+     * It never drops through platforms or goes back down, so it drowns where
+     * the only way up starts lower than its surface.
+     */
+    public static class Climber implements Bot {
+        private Platform target = null;
+        private Platform current = null; // the surface it is on, or last landed on
+        private Platform previous = null; // the surface before that, which it doesn't go back to
+        private boolean runningUp = false; // away from the target, to jump at it faster
+        private float jumpRise = 0; // from its base to the target, when it jumped
+        private int airborneTicks = 0;
+
+        @Override
+        public void control(Simulation simulation) {
+            PlayerCharacter pc = simulation.sketch.pc;
+            if (!pc.fallState.equals(PlayerCharacter.FallState.ON_SURFACE)) {
+                steerInAir(pc);
+                return;
+            }
+            airborneTicks = 0;
+            if (pc.surface != current) {
+                previous = current;
+                current = pc.surface;
+                target = null;
+            }
+            if (target == null) {
+                target = findTarget(simulation);
+                runningUp = false;
+            }
+            Platform surface = pc.surface;
+            if (target == null || pc.pos.x < surface.pos.x || pc.pos.x > surface.pos.x + surface.width) {
+                // nowhere to go, or bounced back off the edge: steering now would walk off it
+                pc.steer(PlayerCharacter.SteerState.NEITHER);
+                return;
+            }
+
+            float left = target.pos.x + PlayerCharacter.radius / 2;
+            float right = target.pos.x + target.width - PlayerCharacter.radius / 2;
+            float rise = pc.pos.y + PlayerCharacter.radius - target.pos.y;
+            float airborne = airborneTicks(pc, rise);
+            boolean targetLeft = left + right < 2 * pc.pos.x;
+            if (runningUp) {
+                pc.steer(targetLeft ? PlayerCharacter.SteerState.RIGHT : PlayerCharacter.SteerState.LEFT);
+                // turning round short of the far edge, so as not to slide off it
+                float farEdge = targetLeft ? surface.pos.x + surface.width - PlayerCharacter.radius / 2
+                        : surface.pos.x + PlayerCharacter.radius / 2;
+                runningUp = Math.abs(farEdge - pc.pos.x) > stoppingDistance(simulation);
+                return;
+            }
+
+            float landing = pc.pos.x + pc.vel.x * airborne;
+            if (landing >= left && landing <= right) {
+                jump(pc, rise);
+                return;
+            }
+            pc.steer(landing < left ? PlayerCharacter.SteerState.RIGHT : PlayerCharacter.SteerState.LEFT);
+
+            // whether jumping from the edge it is heading for would reach the target
+            float edge = pc.vel.x < 0 ? surface.pos.x : surface.pos.x + surface.width;
+            float edgeLanding = edge + pc.vel.x * airborne;
+            if (pc.vel.x < 0 ? edgeLanding <= right : edgeLanding >= left) {
+                float next = pc.pos.x + 2 * pc.vel.x;
+                if (next < surface.pos.x || next > surface.pos.x + surface.width) {
+                    // the jump point is between this tick and the next
+                    jump(pc, rise);
+                }
+            } else {
+                float stop = pc.pos.x + Math.signum(pc.vel.x) * stoppingDistance(simulation);
+                if (stop < surface.pos.x || stop > surface.pos.x + surface.width) {
+                    pc.steer(PlayerCharacter.SteerState.NEITHER);
+                    // too slow to make it from this side, so go back for a run-up
+                    runningUp = targetLeft == pc.vel.x < 0;
+                }
+            }
+        }
+
+        private void jump(PlayerCharacter pc, float rise) {
+            jumpRise = rise;
+            pc.jump();
+        }
+
+        /* Steers so as to come down on the target, or gives it up once below it */
+        private void steerInAir(PlayerCharacter pc) {
+            airborneTicks++;
+            if (target == null || pc.vel.y > 0 && pc.pos.y - PlayerCharacter.radius > target.pos.y) {
+                target = null;
+                pc.steer(PlayerCharacter.SteerState.NEITHER);
+                return;
+            }
+            float landing = pc.pos.x + pc.vel.x * Math.max(0, airborneTicks(pc, jumpRise) - airborneTicks);
+            if (landing < target.pos.x + PlayerCharacter.radius / 2) {
+                pc.steer(PlayerCharacter.SteerState.RIGHT);
+            } else if (landing > target.pos.x + target.width - PlayerCharacter.radius / 2) {
+                pc.steer(PlayerCharacter.SteerState.LEFT);
+            } else {
+                pc.steer(PlayerCharacter.SteerState.NEITHER);
+            }
+        }
+
+        /*
+         * The highest platform, other than the current and previous surfaces, that is at
+         * or above the player's base and that a jump at full speed from the surface
+         * would reach
+         */
+        private Platform findTarget(Simulation simulation) {
+            PlayerCharacter pc = simulation.sketch.pc;
+            Platform surface = pc.surface;
+            Platform highest = null;
+            for (Platform platform : simulation.sketch.level.platforms) {
+                float rise = pc.pos.y + PlayerCharacter.radius - platform.pos.y;
+                float gap = Math.max(platform.pos.x - (surface.pos.x + surface.width),
+                        surface.pos.x - (platform.pos.x + platform.width));
+                if (platform != surface && platform != previous && rise >= 0 && rise <= pc.jumpHeight
+                        && gap + PlayerCharacter.radius / 2 <= pc.maxSpeed * airborneTicks(pc, rise)
+                        && (highest == null || platform.pos.y < highest.pos.y)) {
+                    highest = platform;
+                }
+            }
+            return highest;
+        }
+
+        /* Roughly how long a jump takes to come back down to a rise above where it started */
+        private static float airborneTicks(PlayerCharacter pc, float rise) {
+            int hangFrames = pc.jumpFrames - pc.riseFrames - pc.fallFrames;
+            return pc.riseFrames + hangFrames
+                    + pc.fallFrames * (float) Math.sqrt(Math.max(0, 1 - rise / pc.jumpHeight));
+        }
+
+        /* Roughly how far the player slides, at the current friction, if it stops steering */
+        private static float stoppingDistance(Simulation simulation) {
+            PlayerCharacter pc = simulation.sketch.pc;
+            float deceleration = simulation.sketch.levelState.pcFriction * PlayerCharacter.I_MASS * pc.incr;
+            float speed = Math.abs(pc.vel.x);
+            return speed * speed / (2 * deceleration) + 2 * speed;
+        }
+    }
+
+    public final DontDrown sketch;
+
+    public Simulation(int width, int height, long seed) {
+        sketch = new DontDrown();
+        sketch.width = width;
+        sketch.height = height;
+        sketch.RSW_DEF = width / Sketcher.RSW_DEF_DIV;
+        sketch.seedRandom(seed);
+        sketch.initSimulation();
+    }
+
+    /** Generates the level defined by a debuff, difficulty and seed. */
+    public Level buildLevel(Debuff debuff, Difficulty difficulty, long seed) {
+        return new Level(sketch, debuff, difficulty, seed);
+    }
+
+    /** Puts the player at the start of a level. */
+    public void start(Level level) {
+        sketch.level = level;
+        sketch.resetLevel();
+    }
+
+    /** Advances the current level by one tick, and returns whether it ended. */
+    public CollisionDetector.Outcome step() {
+        return sketch.stepSimulation();
+    }
+
+    /**
+     * Plays the current level until it ends, or until maxTicks have passed.
+     *
+     * @return the way in which the level ended, or NONE if it timed out
+     */
+    public CollisionDetector.Outcome play(Bot bot, int maxTicks) {
+        for (int i = 0; i < maxTicks; i++) {
+            bot.control(this);
+            CollisionDetector.Outcome outcome = step();
+            if (!outcome.equals(CollisionDetector.Outcome.NONE)) {
+                return outcome;
+            }
+        }
+        return CollisionDetector.Outcome.NONE;
+    }
+
+    /**
+     * Counts the bytes allocated by step() alone, i.e. not by the bot or by
+     * starting levels, over a number of steps of randomly chosen levels after
+     * warming up. Levels are restarted with a new Climber as they end.
+     *
+     * @return the bytes allocated, or -1 if the JVM can't count them
+     */
+    public long allocatedBytes(int warmUpSteps, int steps) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        long allocated = 0;
+        Bot bot = null;
+        for (int i = 0; i < warmUpSteps + steps; i++) {
+            if (bot == null) {
+                start(sketch.randomLevel());
+                bot = new Climber();
+            }
+            bot.control(this);
+
+            long before = threadBean.getCurrentThreadAllocatedBytes();
+            CollisionDetector.Outcome outcome = step();
+            long after = threadBean.getCurrentThreadAllocatedBytes();
+            if (i >= warmUpSteps) {
+                allocated += after - before;
+            }
+
+            if (!outcome.equals(CollisionDetector.Outcome.NONE)) {
+                bot = null;
+            }
+        }
+        return allocated;
+    }
+
+    /*
+     * Checks that the simulation step doesn't allocate, and exits with status 1
+     * if it does. Compiling a method now and then allocates a few hundred
+     * bytes, even after warming up, so the steps are counted again, up to a
+     * few times, and the least count is used: an allocation by the step itself
+     * would show up every time.
+     */
+    private static void checkAllocation(String[] args) {
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : ALLOCATION_CHECK_STEPS;
+        Simulation simulation = new Simulation(DEFAULT_WIDTH, DEFAULT_HEIGHT, 0);
+        long bytes = simulation.allocatedBytes(ALLOCATION_CHECK_WARM_UP_STEPS, steps);
+        for (int round = 1; round < ALLOCATION_CHECK_ROUNDS && bytes > 0; round++) {
+            bytes = Math.min(bytes, simulation.allocatedBytes(0, steps));
+        }
+        if (bytes < 0) {
+            System.out.println("This JVM can't count allocated bytes");
+        } else {
+            System.out.println(bytes + " bytes allocated by " + steps + " steps");
+            if (bytes > 0) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Plays randomly chosen levels with a Climber bot and prints how each
+     * difficulty fared.
+     *
+     * With --check-allocation, instead checks that the simulation step doesn't
+     * allocate once warmed up, and exits with status 1 if it does.
+     *
+     * Arguments: [number of levels] [seed], or --check-allocation [number of steps]
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length > 0 && args[0].equals("--check-allocation")) {
+            checkAllocation(args);
+            return;
+        }
+        int levels = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int maxTicks = 10 * 60 * DontDrown.TICKS_PER_SECOND;
+
+        Simulation simulation = new Simulation(DEFAULT_WIDTH, DEFAULT_HEIGHT, seed);
+        Difficulty[] difficulties = Difficulty.values();
+        int[][] outcomes = new int[difficulties.length][CollisionDetector.Outcome.values().length];
+        int[] tokens = new int[difficulties.length];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < levels; i++) {
+            Level level = simulation.sketch.randomLevel();
+            Difficulty difficulty = level.difficulty;
+            simulation.start(level);
+            CollisionDetector.Outcome outcome = simulation.play(new Climber(), maxTicks);
+            outcomes[difficulty.ordinal()][outcome.ordinal()]++;
+            tokens[difficulty.ordinal()] += simulation.sketch.levelState.tokensCollected;
+        }
+        float seconds = (System.nanoTime() - start) / 1e9f;
+
+        for (Difficulty difficulty : difficulties) {
+            int[] counts = outcomes[difficulty.ordinal()];
+            int played = 0;
+            for (int count : counts) {
+                played += count;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-12s played %5d, completed %5d, drowned %5d, timed out %5d, tokens %d",
+                    difficulty, played, counts[CollisionDetector.Outcome.COMPLETED.ordinal()],
+                    counts[CollisionDetector.Outcome.DROWNED.ordinal()],
+                    counts[CollisionDetector.Outcome.NONE.ordinal()], tokens[difficulty.ordinal()]));
+        }
+        System.out.println(String.format(Locale.ROOT, "%d levels in %.1f s (%.0f levels per minute)", levels, seconds,
+                levels / seconds * 60));
+    }
+}
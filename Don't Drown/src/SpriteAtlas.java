@@ -0,0 +1,175 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+import processing.awt.PGraphicsJava2D;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+/**
+ * Rasterises hand-drawn tokens into bitmaps that are packed into shared atlas
+ * pages, so that they can be blitted rather than re-filled every frame.
+ *
+ * Tokens are rasterised the first time that they are drawn. Once the atlas
+ * runs out of pages, the page least recently drawn from is cleared and
+ * reused, so tokens that are still drawn keep their regions, and the space of
+ * tokens that are no longer drawn, e.g. after their stress bucket was
+ * evicted, is reclaimed.
+ */
+public class SpriteAtlas {
+
+    public static final int PAGE_SIZE = 2048;
+    private static final int MAX_PAGES = 4;
+    private static final int REGION_GAP = 1; // empty pixels between regions to avoid bleeding
+    private static final Color EMPTY = new Color(0, 0, 0, 0);
+
+    /* A page of the atlas, and when it was last drawn from */
+    private static class Page {
+        final BufferedImage image = new BufferedImage(PAGE_SIZE, PAGE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        int lastDrawn = 0; // frameCount
+    }
+
+    /* The location of a rasterised token within the atlas */
+    private static class Region {
+        final Page page;
+        final int u, v, w, h; // pixel bounds within the page
+        final int offsetX, offsetY; // position of the region relative to the token's origin
+
+        Region(Page page, int u, int v, int w, int h, int offsetX, int offsetY) {
+            this.page = page;
+            this.u = u;
+            this.v = v;
+            this.w = w;
+            this.h = h;
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+        }
+    }
+
+    private final DontDrown sketch;
+    private final ArrayList<Page> pages = new ArrayList<>(); // the last is being filled
+    private final WeakHashMap<PShape, Region> regions = new WeakHashMap<>();
+    private PGraphics scratch; // rasterisation target, copied into a page
+
+    // shelf packing state for the current page
+    private int shelfX = 0;
+    private int shelfY = 0;
+    private int shelfHeight = 0;
+
+    public SpriteAtlas(DontDrown sketch) {
+        this.sketch = sketch;
+    }
+
+    /** Returns true if the current renderer can blit atlas regions. */
+    public boolean supported() {
+        return sketch.g instanceof PGraphicsJava2D;
+    }
+
+    /* Discards the regions on the page least recently drawn from, and returns the page cleared for reuse */
+    private Page recycleLeastRecentPage() {
+        int least = 0;
+        for (int i = 1; i < pages.size(); i++) {
+            if (pages.get(i).lastDrawn < pages.get(least).lastDrawn) {
+                least = i;
+            }
+        }
+        Page recycled = pages.remove(least);
+        regions.values().removeIf(region -> region.page == recycled);
+
+        Graphics2D g2 = recycled.image.createGraphics();
+        g2.setBackground(EMPTY);
+        g2.clearRect(0, 0, PAGE_SIZE, PAGE_SIZE);
+        g2.dispose();
+        return recycled;
+    }
+
+    /* Finds space for a w x h region, opening a new shelf or page if needed */
+    private Page allocate(int w, int h) {
+        if (pages.isEmpty()) {
+            pages.add(new Page());
+        }
+
+        if (shelfX + w > PAGE_SIZE) {
+            // start a new shelf
+            shelfX = 0;
+            shelfY += shelfHeight + REGION_GAP;
+            shelfHeight = 0;
+        }
+
+        if (shelfY + h > PAGE_SIZE) {
+            // start a new page
+            pages.add(pages.size() == MAX_PAGES ? recycleLeastRecentPage() : new Page());
+            shelfX = 0;
+            shelfY = 0;
+            shelfHeight = 0;
+        }
+
+        return pages.get(pages.size() - 1);
+    }
+
+    /* Draws a token into the scratch buffer, then copies it into the atlas */
+    private Region rasterise(PShape token, float[] bounds) {
+        int offsetX = (int) Math.floor(bounds[0]);
+        int offsetY = (int) Math.floor(bounds[1]);
+        int w = (int) Math.ceil(bounds[0] + bounds[2]) - offsetX;
+        int h = (int) Math.ceil(bounds[1] + bounds[3]) - offsetY;
+
+        if (w <= 0 || h <= 0 || w > PAGE_SIZE || h > PAGE_SIZE) {
+            return null;
+        }
+
+        if (scratch == null || scratch.width < w || scratch.height < h) {
+            int scratchW = Math.max(w, scratch == null ? 0 : scratch.width);
+            int scratchH = Math.max(h, scratch == null ? 0 : scratch.height);
+            scratch = sketch.createGraphics(scratchW, scratchH);
+        }
+
+        scratch.beginDraw();
+        scratch.clear();
+        scratch.shape(token, -offsetX, -offsetY);
+        scratch.endDraw();
+        scratch.loadPixels();
+
+        Page page = allocate(w, h);
+        int u = shelfX;
+        int v = shelfY;
+        page.image.setRGB(u, v, w, h, scratch.pixels, 0, scratch.width);
+
+        shelfX += w + REGION_GAP;
+        shelfHeight = Math.max(shelfHeight, h);
+
+        Region region = new Region(page, u, v, w, h, offsetX, offsetY);
+        regions.put(token, region);
+        return region;
+    }
+
+    /**
+     * Blits a token at the given position, rasterising it first if needed.
+     *
+     * @param token  the token to draw
+     * @param bounds x, y, width, height of the token, relative to its origin
+     * @return false if the token could not be rasterised, so should be drawn as
+     *         a shape instead
+     */
+    public boolean draw(PShape token, float[] bounds, float x, float y) {
+        Region region = regions.get(token);
+        if (region == null) {
+            region = rasterise(token, bounds);
+            if (region == null) {
+                return false;
+            }
+        }
+
+        region.page.lastDrawn = sketch.frameCount;
+        Graphics2D g2 = ((PGraphicsJava2D) sketch.g).g2;
+        int dx = Math.round(x) + region.offsetX;
+        int dy = Math.round(y) + region.offsetY;
+        g2.drawImage(region.page.image,
+                dx, dy, dx + region.w, dy + region.h,
+                region.u, region.v, region.u + region.w, region.v + region.h,
+                null);
+        return true;
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+/**
+ * A file of generated sprite tokens, so that later launches can rebuild them
+ * rather than hand-drawing them again. The file is memory-mapped, and each
+ * token is built straight from the mapped bytes when it is first requested.
+ * Shared shapes, i.e. fills and meshes, are marked as such, and are shared
+ * again when loaded.
+ *
+ * The file is keyed by everything that generation depends on: the sketch's
+ * dimensions, the hand-drawing constants, the jitter seed and VERSION, which
+ * must be bumped whenever a generator changes. A file with a different key is
+ * ignored, and replaced when the cache is next saved.
+ */
+public class SpriteCache {
+
+    public static final int VERSION = 6;
+    private static final int MAGIC = 0x44445343; // "DDSC"
+
+    // flags of a cached shape
+    private static final int FILL = 1;
+    private static final int STYLE = 2;
+    private static final int CLOSE = 4;
+    private static final int SHARED = 8;
+
+    /** A generated token to be saved. */
+    public static class Entry {
+        public final String table;
+        public final int bucketIndex;
+        public final int variant;
+        public final PShape token;
+
+        public Entry(String table, int bucketIndex, int variant, PShape token) {
+            this.table = table;
+            this.bucketIndex = bucketIndex;
+            this.variant = variant;
+            this.token = token;
+        }
+    }
+
+    private final Path path;
+    private final int width;
+    private final int height;
+    private final long jitterSeed;
+    private final int constants; // hash of the hand-drawing constants
+
+    // guarded by this, as tokens are loaded by worker threads while the file may be replaced
+    private MappedByteBuffer mapped = null; // null unless a file with a matching key was found
+    private final HashMap<String, Integer> offsets = new HashMap<>(); // of each token in the mapped file
+
+    /** Maps the cache file for the sketch's current settings, if there is one. */
+    public SpriteCache(Path path, DontDrown sketch) {
+        this.path = path;
+        width = sketch.width;
+        height = sketch.height;
+        jitterSeed = sketch.jitterSeed;
+        constants = Arrays.hashCode(new float[] { sketch.RSW_DEF, Sketcher.RSV_MIN, Sketcher.RSV_MAX,
+                Sketcher.RSS_MIN, Sketcher.RSS_MAX, StressAndTokenState.ABS_MAX_STRESS,
+                StressAndTokenState.DEFAULT_STRESS_EFFECT_THRESHOLD, SpriteTable.DEFAULT_ROWS_PER_BUCKET,
+                AbstractDrawable.VARIANT_TOKENS, HandDrawer.meshes ? 1 : 0 });
+        synchronized (this) {
+            open();
+        }
+    }
+
+    private static String entryKey(String table, int bucketIndex, int variant) {
+        return table + '#' + bucketIndex + '#' + variant;
+    }
+
+    /*
+     * Maps the file and indexes its tokens, unless it is missing, corrupt or for
+     * other settings. Called while holding this
+     */
+    private void open() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != width
+                    || buffer.getInt() != height || buffer.getLong() != jitterSeed || buffer.getInt() != constants) {
+                return; // out of date
+            }
+
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] table = new byte[buffer.getShort()];
+                buffer.get(table);
+                int bucketIndex = buffer.getInt();
+                int variant = buffer.getInt();
+                int length = buffer.getInt();
+                offsets.put(entryKey(new String(table, StandardCharsets.UTF_8), bucketIndex, variant),
+                        buffer.position());
+                buffer.position(buffer.position() + length);
+            }
+            mapped = buffer;
+        } catch (NoSuchFileException e) {
+            // nothing cached yet
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("Ignoring sprite cache " + path + ": " + e);
+            offsets.clear();
+        }
+    }
+
+    /**
+     * Builds a cached token, or returns null if it isn't cached. Safe to call
+     * from any thread, as each call reads the mapped file through its own view.
+     * A corrupt token is reported and dropped from the cache, so that it is
+     * generated instead.
+     */
+    public PShape load(String table, int bucketIndex, int variant) {
+        String key = entryKey(table, bucketIndex, variant);
+        ByteBuffer buffer;
+        int offset;
+        synchronized (this) {
+            Integer entry = offsets.get(key);
+            if (entry == null) {
+                return null;
+            }
+            buffer = mapped.duplicate();
+            offset = entry;
+        }
+
+        try {
+            buffer.position(offset);
+            return read(buffer, HandDrawer.shapes());
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                | NegativeArraySizeException e) {
+            System.err.println("Ignoring corrupt " + table + " token in sprite cache " + path + ": " + e);
+            synchronized (this) {
+                offsets.remove(key);
+            }
+            return null;
+        }
+    }
+
+    /* Builds a shape and its children from the buffer's position */
+    private static PShape read(ByteBuffer buffer, PGraphics shapes) {
+        int family = buffer.get();
+        int kind = buffer.get();
+        int flags = buffer.get();
+        int fillColour = buffer.getInt();
+
+        SpriteShape shape;
+        if (family == PConstants.GROUP) {
+            shape = new SpriteShape(shapes, PConstants.GROUP);
+            int children = buffer.getShort();
+            for (int i = 0; i < children; i++) {
+                shape.addChild(read(buffer, shapes));
+            }
+        } else if (family == PShape.PRIMITIVE) {
+            float[] params = new float[buffer.getShort()];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = buffer.getFloat();
+            }
+            if ((flags & SHARED) != 0) {
+                return SpriteShape.shared(kind, fillColour, (flags & STYLE) != 0, params);
+            }
+            shape = new SpriteShape(shapes, kind, params);
+        } else if (family == PShape.GEOMETRY && (flags & SHARED) != 0) {
+            float[] outline = new float[2 * buffer.getInt()];
+            for (int i = 0; i < outline.length; i++) {
+                outline[i] = buffer.getFloat();
+            }
+            return SpriteShape.shared(PConstants.POLYGON, fillColour, (flags & STYLE) != 0, outline);
+        } else if (family == PShape.GEOMETRY) {
+            shape = new SpriteShape(shapes, PShape.GEOMETRY);
+            shape.beginShape();
+            int vertices = buffer.getInt();
+            for (int i = 0; i < vertices; i++) {
+                shape.vertex(buffer.getFloat(), buffer.getFloat());
+            }
+            shape.endShape((flags & CLOSE) != 0 ? PConstants.CLOSE : PConstants.OPEN);
+        } else if (family == PShape.PATH) {
+            // a mesh, whose contours after the first are listed by their first vertex
+            float[] vertices = new float[2 * buffer.getInt()];
+            int[] contourStarts = new int[buffer.getShort()];
+            for (int i = 0; i < contourStarts.length; i++) {
+                contourStarts[i] = buffer.getInt();
+            }
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] = buffer.getFloat();
+            }
+            if ((flags & SHARED) != 0) {
+                return SpriteShape.sharedMesh(fillColour, (flags & STYLE) != 0, vertices, contourStarts);
+            }
+            shape = SpriteShape.mesh(shapes, vertices, contourStarts, (flags & CLOSE) != 0);
+        } else {
+            throw new IllegalArgumentException("unknown shape family " + family);
+        }
+
+        shape.restoreStyle((flags & FILL) != 0, fillColour, (flags & STYLE) != 0);
+        return shape;
+    }
+
+    /* Writes a shape and its children */
+    private static void write(PShape token, DataOutputStream out) throws IOException {
+        if (!(token instanceof SpriteShape)) {
+            throw new IllegalArgumentException("only shapes created by a HandDrawer can be cached");
+        }
+        SpriteShape shape = (SpriteShape) token;
+        int family = shape.getFamily();
+        out.writeByte(family);
+        out.writeByte(family == PShape.PRIMITIVE ? shape.getKind() : 0);
+        out.writeByte((shape.hasFill() ? FILL : 0) | (shape.isStyleEnabled() ? STYLE : 0)
+                | (shape.isClosed() ? CLOSE : 0) | (shape.isShared() ? SHARED : 0));
+        out.writeInt(shape.getFillColour());
+
+        if (family == PConstants.GROUP) {
+            out.writeShort(shape.getChildCount());
+            for (int i = 0; i < shape.getChildCount(); i++) {
+                write(shape.getChild(i), out);
+            }
+        } else if (family == PShape.PRIMITIVE) {
+            float[] params = shape.getParams();
+            out.writeShort(params.length);
+            for (float param : params) {
+                out.writeFloat(param);
+            }
+        } else if (family == PShape.GEOMETRY) {
+            out.writeInt(shape.getVertexCount());
+            for (int i = 0; i < shape.getVertexCount(); i++) {
+                out.writeFloat(shape.getVertexX(i));
+                out.writeFloat(shape.getVertexY(i));
+            }
+        } else if (family == PShape.PATH) {
+            ArrayList<Integer> contourStarts = new ArrayList<>();
+            int vertex = 0;
+            for (int i = 0; i < shape.getVertexCodeCount(); i++) {
+                int code = shape.getVertexCode(i);
+                if (code == PConstants.BREAK) {
+                    contourStarts.add(vertex);
+                } else if (code == PConstants.VERTEX) {
+                    vertex++;
+                } else {
+                    throw new IllegalArgumentException("only paths of straight lines can be cached");
+                }
+            }
+
+            out.writeInt(shape.getVertexCount());
+            out.writeShort(contourStarts.size());
+            for (int start : contourStarts) {
+                out.writeInt(start);
+            }
+            for (int i = 0; i < shape.getVertexCount(); i++) {
+                out.writeFloat(shape.getVertexX(i));
+                out.writeFloat(shape.getVertexY(i));
+            }
+        } else {
+            throw new IllegalArgumentException("unknown shape family " + family);
+        }
+    }
+
+    /**
+     * Replaces the file with the given tokens, and maps the new file. Tokens
+     * that can't be cached are left out, and failures are reported rather than
+     * thrown, as the cache only speeds up later launches.
+     */
+    public void save(List<Entry> entries) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream token = new DataOutputStream(bytes);
+            byte[][] encoded = new byte[entries.size()][];
+            int count = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                bytes.reset();
+                try {
+                    write(entries.get(i).token, token);
+                    token.flush();
+                    encoded[i] = bytes.toByteArray();
+                    count++;
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Not caching a " + entries.get(i).table + " token: " + e.getMessage());
+                }
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeLong(jitterSeed);
+            out.writeInt(constants);
+            out.writeInt(count);
+            for (int i = 0; i < entries.size(); i++) {
+                if (encoded[i] == null) {
+                    continue;
+                }
+                Entry entry = entries.get(i);
+                byte[] table = entry.table.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(table.length);
+                out.write(table);
+                out.writeInt(entry.bucketIndex);
+                out.writeInt(entry.variant);
+                out.writeInt(encoded[i].length);
+                out.write(encoded[i]);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write sprite cache " + temp + ": " + e);
+            return;
+        }
+
+        synchronized (this) {
+            // drop the old file's mapping first, as a mapped file can't be replaced on e.g. Windows
+            mapped = null;
+            offsets.clear();
+            try {
+                try {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to replace sprite cache " + path + ": " + e);
+            }
+            open();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+import processing.core.PShape;
+
+/**
+ * A shape created by a HandDrawer. Exposes the parts of its style that PShape
+ * keeps to itself, so that tokens can be written to and rebuilt from the
+ * SpriteCache exactly.
+ *
+ * The plain fills under hand-drawn outlines are the same for every variant of
+ * a token, and often for every stress, so they are shared: shared() returns
+ * one interned shape for each kind, colour and set of parameters. So are the
+ * meshes of outlines drawn without any jitter, e.g. platforms at low stress,
+ * as every variant draws them the same: sharedMesh() interns them by their
+ * vertices. Jittered meshes are unique to their token, so they aren't
+ * interned, and are freed with it. Interned shapes are kept for the rest of
+ * the run, but there are only a few of each per table. A shared shape may be
+ * a child of any number of tokens, so it must never be changed; restyling a
+ * group swaps its shared children for restyled ones instead.
+ */
+public class SpriteShape extends PShape {
+
+    /* Identifies a shared shape */
+    private static final class Key {
+        final int kind;
+        final int fillColour;
+        final boolean style;
+        final float[] params;
+        final int[] contourStarts; // of a mesh, else null
+
+        Key(int kind, int fillColour, boolean style, float[] params, int[] contourStarts) {
+            this.kind = kind;
+            this.fillColour = fillColour;
+            this.style = style;
+            this.params = params;
+            this.contourStarts = contourStarts;
+        }
+
+        Key withStyle(boolean style) {
+            return new Key(kind, fillColour, style, params, contourStarts);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return kind == key.kind && fillColour == key.fillColour && style == key.style
+                    && Arrays.equals(params, key.params) && Arrays.equals(contourStarts, key.contourStarts);
+        }
+
+        @Override
+        public int hashCode() {
+            return (((kind * 31 + fillColour) * 31 + (style ? 1 : 0)) * 31 + Arrays.hashCode(params)) * 31
+                    + Arrays.hashCode(contourStarts);
+        }
+    }
+
+    private static final ConcurrentHashMap<Key, SpriteShape> shared = new ConcurrentHashMap<>();
+
+    private Key key = null; // null unless the shape is shared
+    private int outlines = 0; // merged into the shape, if it is a mesh
+
+    public SpriteShape(PGraphics g, int family) {
+        super(g, family);
+    }
+
+    public SpriteShape(PGraphics g, int kind, float... params) {
+        super(g, kind, params);
+    }
+
+    /**
+     * Returns the shared shape of the given kind, fill colour, style and
+     * parameters, creating it on first use. Safe to call from any thread.
+     *
+     * @param kind   a primitive kind, e.g. PConstants.QUAD, or PConstants.POLYGON
+     *               for a closed polygon
+     * @param params the primitive's parameters, or the polygon's vertices as x,
+     *               y pairs
+     */
+    public static SpriteShape shared(int kind, int fillColour, boolean style, float... params) {
+        return intern(new Key(kind, fillColour, style, params.clone(), null));
+    }
+
+    /**
+     * Returns the shared closed mesh of the given fill colour, style and
+     * vertices, creating it on first use. Safe to call from any thread.
+     *
+     * @param vertices      x, y pairs
+     * @param contourStarts the first vertex of each contour after the first
+     */
+    public static SpriteShape sharedMesh(int fillColour, boolean style, float[] vertices, int[] contourStarts) {
+        return intern(new Key(PShape.PATH, fillColour, style, vertices.clone(), contourStarts.clone()));
+    }
+
+    private static SpriteShape intern(Key key) {
+        return shared.computeIfAbsent(key, k -> {
+            SpriteShape shape;
+            if (k.kind == PShape.PATH) {
+                shape = mesh(HandDrawer.shapes(), k.params, k.contourStarts, true);
+            } else if (k.kind == PConstants.POLYGON) {
+                shape = new SpriteShape(HandDrawer.shapes(), PShape.GEOMETRY);
+                shape.beginShape();
+                for (int i = 0; i < k.params.length; i += 2) {
+                    shape.vertex(k.params[i], k.params[i + 1]);
+                }
+                shape.endShape(PConstants.CLOSE);
+            } else {
+                shape = new SpriteShape(HandDrawer.shapes(), k.kind, k.params);
+            }
+            shape.setFill(k.fillColour);
+            shape.style = k.style;
+            shape.key = k;
+            return shape;
+        });
+    }
+
+    /**
+     * Builds a mesh, i.e. a path of straight lines whose outlines after the
+     * first are contours of it.
+     *
+     * @param vertices      x, y pairs
+     * @param contourStarts the first vertex of each contour after the first
+     */
+    public static SpriteShape mesh(PGraphics g, float[] vertices, int[] contourStarts, boolean close) {
+        SpriteShape shape = new SpriteShape(g, PShape.PATH);
+        shape.beginShape();
+        int contour = 0;
+        for (int i = 0; i < vertices.length / 2; i++) {
+            if (contour < contourStarts.length && contourStarts[contour] == i) {
+                if (contour > 0) {
+                    shape.endContour();
+                }
+                shape.beginContour();
+                contour++;
+            }
+            shape.vertex(vertices[2 * i], vertices[2 * i + 1]);
+        }
+        if (contour > 0) {
+            shape.endContour();
+        }
+        shape.endShape(close ? PConstants.CLOSE : PConstants.OPEN);
+        shape.outlines = contourStarts.length + 1;
+        return shape;
+    }
+
+    /** The number of distinct shared shapes, e.g. for debugging. */
+    public static int sharedCount() {
+        return shared.size();
+    }
+
+    /** Whether the shape is shared between tokens, and so must not be changed. */
+    public boolean isShared() {
+        return key != null;
+    }
+
+    /** The number of outlines merged into the shape if it is a mesh, else 0. */
+    public int outlineCount() {
+        return outlines;
+    }
+
+    public boolean hasFill() {
+        return fill;
+    }
+
+    public int getFillColour() {
+        return fillColor;
+    }
+
+    public boolean isStyleEnabled() {
+        return style;
+    }
+
+    /** Restores the style of a shape read from the cache. */
+    public void restoreStyle(boolean fill, int fillColour, boolean style) {
+        this.fill = fill;
+        this.fillColor = fillColour;
+        this.style = style;
+    }
+
+    @Override
+    public void disableStyle() {
+        restyle(false);
+    }
+
+    @Override
+    public void enableStyle() {
+        restyle(true);
+    }
+
+    /* Sets the style of the shape and its children, swapping shared children for ones with the new style */
+    private void restyle(boolean style) {
+        if (key != null) {
+            throw new UnsupportedOperationException("a shared shape can only be restyled through its group");
+        }
+        this.style = style;
+        for (int i = 0; i < childCount; i++) {
+            PShape child = children[i];
+            Key childKey = child instanceof SpriteShape ? ((SpriteShape) child).key : null;
+            if (childKey != null) {
+                children[i] = intern(childKey.withStyle(style));
+            } else if (style) {
+                child.enableStyle();
+            } else {
+                child.disableStyle();
+            }
+        }
+    }
+}
@@ -0,0 +1,376 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import processing.core.PShape;
+
+/**
+ * A table of tokens indexed by stress and variant. Rows of the table are
+ * grouped into stress buckets, and a bucket's tokens are only generated when
+ * they are first requested. Tables are looked up by a name that describes
+ * their content, so drawables that look the same share one table.
+ *
+ * Every table shares one least-recently-used cache of buckets, which evicts
+ * cold buckets once the estimated size of the cached tokens exceeds
+ * maxCachedNodes. Evicted buckets are regenerated if they are needed again.
+ * Tables are shared between threads, so the cache is only touched while
+ * holding its lock.
+ *
+ * Each token is generated from its own style and random stream, seeded by its
+ * table, bucket and variant, so it is the same whenever and on whichever
+ * thread it is generated. This lets the first buckets be warmed up in
+ * parallel, and be saved to a SpriteCache for later launches.
+ */
+public class SpriteTable {
+
+    public static final int DEFAULT_ROWS_PER_BUCKET = 2;
+
+    public static int maxCachedNodes = 100000; // cap on the estimated number of shapes held across every table
+    public static SpriteCache diskCache = null; // tokens saved by previous launches, if any
+    public static ForkJoinPool prefetchPool = null; // generates tokens ahead of stress; null to not prefetch
+
+    /** Generates one token variant, hand-drawn in the style of its bucket's stress. */
+    public interface Generator {
+        PShape generate(HandDrawer drawer, int variant);
+    }
+
+    /* The tokens generated for one stress bucket of a table */
+    private static class Bucket {
+        final PShape[] variants = new PShape[AbstractDrawable.VARIANT_TOKENS];
+        final Job[] prefetching = new Job[AbstractDrawable.VARIANT_TOKENS]; // queued on the prefetch pool
+        final HashSet<PShape> sharedMeshes = new HashSet<>(); // counted in nodes once, however many tokens hold them
+        int nodes = 0; // estimated size of the generated tokens
+    }
+
+    /* The generation of one token, with everything it needs decided by the thread that created it */
+    private static class Job implements Callable<PShape> {
+        final SpriteTable table;
+        final int bucketIndex;
+        final int variant;
+        final HandDrawStyle style;
+        final long seed;
+        boolean generated = false; // rather than loaded from the disk cache
+        Future<PShape> future = null; // if queued on the prefetch pool
+
+        Job(SpriteTable table, int bucketIndex, int variant) {
+            this.table = table;
+            this.bucketIndex = bucketIndex;
+            this.variant = variant;
+            style = table.style(bucketIndex);
+            seed = table.seed(bucketIndex, variant);
+        }
+
+        @Override
+        public PShape call() {
+            SpriteCache cache = diskCache;
+            if (cache != null) {
+                PShape token = cache.load(table.name, bucketIndex, variant);
+                if (token != null) {
+                    return token;
+                }
+            }
+            generated = true;
+            return table.generator.generate(new HandDrawer(style, new SplittableRandom(seed)), variant);
+        }
+
+        /* The token from the prefetch pool, generating it here if that failed */
+        PShape result() {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("Failed to prefetch a " + table.name + " token: " + e.getCause());
+            }
+            return call();
+        }
+    }
+
+    // the cache, guarded by lru
+    private static final LinkedHashMap<Bucket, Bucket> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private static final ArrayList<Job> prefetching = new ArrayList<>(); // queued on the prefetch pool
+    private static int cachedNodes = 0;
+    private static final ConcurrentHashMap<String, SpriteTable> tables = new ConcurrentHashMap<>(); // by name, i.e. content
+
+    private final DontDrown sketch;
+    private final String name; // identifies the table's tokens, e.g. in their seeds
+    private final Generator generator;
+    private final int rowsPerBucket;
+    private final float stressPerRow; // the stress value represented by each row
+    private final Bucket[] buckets;
+    private int lastBucket = 0;
+
+    private SpriteTable(DontDrown sketch, String name, int rows, int rowsPerBucket, float stressPerRow,
+            Generator generator) {
+        this.sketch = sketch;
+        this.name = name;
+        this.generator = generator;
+        this.rowsPerBucket = rowsPerBucket;
+        this.stressPerRow = stressPerRow;
+        this.buckets = new Bucket[(rows + rowsPerBucket - 1) / rowsPerBucket];
+    }
+
+    /**
+     * Returns the table with the given name, creating it if there isn't one yet,
+     * so that every drawable asking for the same tokens shares one table. The
+     * name is the table's content address: it must include everything that the
+     * generator depends on, other than the sketch's settings, e.g. the
+     * dimensions and colours of a platform. Safe to call from any thread.
+     *
+     * @param name          identifies the table's tokens; tables with the same
+     *                      name generate the same tokens
+     * @param rows          the number of stress rows, i.e. the maximum stress
+     *                      index + 1
+     * @param rowsPerBucket the number of consecutive rows that share tokens
+     * @param stressPerRow  the stress represented by each row, e.g. 1 if the
+     *                      table is indexed by whole stress values
+     */
+    public static SpriteTable shared(DontDrown sketch, String name, int rows, int rowsPerBucket, float stressPerRow,
+            Generator generator) {
+        return tables.computeIfAbsent(name,
+                key -> new SpriteTable(sketch, key, rows, rowsPerBucket, stressPerRow, generator));
+    }
+
+    /* Table indexed by whole stress values, with the default bucket size */
+    public static SpriteTable shared(DontDrown sketch, String name, Generator generator) {
+        return shared(sketch, name, StressAndTokenState.ABS_MAX_STRESS + 1, DEFAULT_ROWS_PER_BUCKET, 1f, generator);
+    }
+
+    public static int getCachedNodes() {
+        synchronized (lru) {
+            return cachedNodes;
+        }
+    }
+
+    /*
+     * Estimates the memory cost of a bucket's token as the number of shapes in
+     * its tree, counting a mesh as the outlines merged into it. A shared mesh
+     * is counted by the first token of the bucket to hold it; shared fills
+     * aren't counted, as they are few and small
+     */
+    private static int countNodes(PShape shape, Bucket bucket) {
+        if (shape instanceof SpriteShape) {
+            SpriteShape sprite = (SpriteShape) shape;
+            if (sprite.outlineCount() > 0) {
+                return sprite.isShared() && !bucket.sharedMeshes.add(sprite) ? 0 : sprite.outlineCount();
+            }
+            if (sprite.isShared()) {
+                return 0;
+            }
+        }
+        int nodes = 1;
+        for (int i = 0; i < shape.getChildCount(); i++) {
+            nodes += countNodes(shape.getChild(i), bucket);
+        }
+        return nodes;
+    }
+
+    /* Evicts least recently used buckets until the cache is within its cap */
+    private static void evict(Bucket keep) {
+        Iterator<Bucket> iterator = lru.keySet().iterator();
+        while (cachedNodes > maxCachedNodes && iterator.hasNext()) {
+            Bucket bucket = iterator.next();
+            if (bucket == keep) {
+                continue;
+            }
+            for (int i = 0; i < bucket.variants.length; i++) {
+                bucket.variants[i] = null;
+            }
+            cachedNodes -= bucket.nodes;
+            bucket.nodes = 0;
+            bucket.sharedMeshes.clear();
+            iterator.remove();
+        }
+    }
+
+    /* The style of a bucket's tokens, i.e. that of its lowest stress */
+    private HandDrawStyle style(int bucketIndex) {
+        return sketch.levelState.styleFor(bucketIndex * rowsPerBucket * stressPerRow);
+    }
+
+    /* The seed of a token's random stream */
+    private long seed(int bucketIndex, int variant) {
+        return sketch.jitterSeed ^ ((long) name.hashCode() << 32) ^ ((long) bucketIndex << 8) ^ variant;
+    }
+
+    /* Returns a bucket, marking it as recently used */
+    private Bucket bucket(int bucketIndex) {
+        Bucket bucket = buckets[bucketIndex];
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets[bucketIndex] = bucket;
+        }
+        if (lru.get(bucket) == null) { // also marks the bucket as recently used
+            lru.put(bucket, bucket);
+        }
+        return bucket;
+    }
+
+    /* Stores a generated token, evicting other buckets if the cache is over its cap */
+    private void store(Bucket bucket, int variant, PShape token) {
+        bucket.variants[variant] = token;
+        int nodes = countNodes(token, bucket);
+        bucket.nodes += nodes;
+        cachedNodes += nodes;
+        evict(bucket);
+    }
+
+    /* Returns the given token of a bucket, waiting for its prefetch or generating it if needed */
+    private PShape fetch(int bucketIndex, int variant) {
+        Bucket bucket = bucket(bucketIndex);
+        PShape token = bucket.variants[variant];
+        if (token == null) {
+            Job job = bucket.prefetching[variant];
+            if (job != null) {
+                bucket.prefetching[variant] = null;
+                prefetching.remove(job);
+                token = job.result();
+            } else {
+                token = new Job(this, bucketIndex, variant).call();
+            }
+            store(bucket, variant, token);
+        }
+        return token;
+    }
+
+    /* Queues the generation of a token on the prefetch pool, unless it is already generated or queued */
+    private void prefetch(int bucketIndex, int variant) {
+        Bucket bucket = buckets[bucketIndex];
+        if (bucket == null) {
+            bucket = new Bucket(); // only cached once a token is stored
+            buckets[bucketIndex] = bucket;
+        }
+        if (bucket.variants[variant] != null || bucket.prefetching[variant] != null) {
+            return;
+        }
+        Job job = new Job(this, bucketIndex, variant);
+        job.future = prefetchPool.submit(job);
+        bucket.prefetching[variant] = job;
+        prefetching.add(job);
+    }
+
+    /* Stores the tokens that the prefetch pool has finished */
+    private static void storePrefetched() {
+        Iterator<Job> iterator = prefetching.iterator();
+        while (iterator.hasNext()) {
+            Job job = iterator.next();
+            if (!job.future.isDone()) {
+                continue;
+            }
+            iterator.remove();
+            Bucket bucket = job.table.bucket(job.bucketIndex);
+            bucket.prefetching[job.variant] = null;
+            if (bucket.variants[job.variant] == null) {
+                job.table.store(bucket, job.variant, job.result());
+            }
+        }
+    }
+
+    /**
+     * Generates the tokens of the lowest buckets of tables on a pool, e.g.
+     * while starting up, so that they are ready before they are first drawn.
+     * Tables can be warmed up one at a time, e.g. across several frames.
+     * Tokens are stored by the calling thread once each table's jobs have
+     * finished, holding the cache's lock. If any token had to be generated,
+     * finish() rewrites the disk cache with every warmed token.
+     */
+    public static class WarmUp {
+        private final ForkJoinPool pool;
+        private final int bucketCount;
+        private final ArrayList<SpriteCache.Entry> warmed = new ArrayList<>();
+        private boolean generated = false;
+
+        /**
+         * @param bucketCount the number of buckets to warm up in each table, from
+         *                    zero stress upwards
+         */
+        public WarmUp(ForkJoinPool pool, int bucketCount) {
+            this.pool = pool;
+            this.bucketCount = bucketCount;
+        }
+
+        /** Generates, or loads, the lowest buckets of one table. */
+        public void warm(SpriteTable table) {
+            ArrayList<Job> jobs = new ArrayList<>();
+            for (int b = 0; b < Math.min(bucketCount, table.buckets.length); b++) {
+                for (int v = 0; v < AbstractDrawable.VARIANT_TOKENS; v++) {
+                    Bucket bucket = table.buckets[b];
+                    if (bucket == null || bucket.variants[v] == null) {
+                        jobs.add(new Job(table, b, v));
+                    }
+                }
+            }
+
+            List<Future<PShape>> tokens = pool.invokeAll(jobs);
+            synchronized (lru) {
+                store(table, jobs, tokens);
+            }
+        }
+
+        /* Stores the tokens of a table's jobs */
+        private void store(SpriteTable table, ArrayList<Job> jobs, List<Future<PShape>> tokens) {
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job = jobs.get(i);
+                try {
+                    PShape token = tokens.get(i).get();
+                    table.store(table.bucket(job.bucketIndex), job.variant, token);
+                    warmed.add(new SpriteCache.Entry(table.name, job.bucketIndex, job.variant, token));
+                    generated |= job.generated;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    // leave the token to be generated when first requested
+                    System.err.println("Failed to warm up a " + table.name + " token: " + e.getCause());
+                }
+            }
+        }
+
+        /** Saves the warmed tokens to the disk cache, if any were generated. */
+        public void finish() {
+            if (generated && diskCache != null) {
+                diskCache.save(warmed);
+            }
+        }
+    }
+
+    /** Returns every table created so far, e.g. to warm them up. */
+    public static List<SpriteTable> tables() {
+        return new ArrayList<>(tables.values());
+    }
+
+    /**
+     * Returns the token for a stress row and variant, generating it if needed.
+     * If there is a prefetch pool, then whenever stress moves into another
+     * bucket, the tokens of the next bucket in the direction that it is moving
+     * are queued on the pool, and stored by later calls once generated, so
+     * that rising or falling stress does not have to wait on generation.
+     */
+    public PShape get(int row, int variant) {
+        synchronized (lru) {
+            storePrefetched();
+
+            int bucketIndex = Math.max(0, Math.min(buckets.length - 1, row / rowsPerBucket));
+            if (bucketIndex != lastBucket) {
+                int prefetchIndex = bucketIndex + (bucketIndex > lastBucket ? 1 : -1);
+                lastBucket = bucketIndex;
+
+                if (prefetchPool != null && prefetchIndex >= 0 && prefetchIndex < buckets.length) {
+                    for (int v = 0; v < AbstractDrawable.VARIANT_TOKENS; v++) {
+                        prefetch(prefetchIndex, v);
+                    }
+                }
+            }
+
+            return fetch(bucketIndex, variant);
+        }
+    }
+}
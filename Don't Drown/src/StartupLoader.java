@@ -0,0 +1,167 @@
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import processing.core.PConstants;
+
+/**
+ * Runs the sketch's startup as a queue of steps, as many per frame as fit in
+ * the frame's time budget, so that the window keeps responding and a progress
+ * bar can be drawn while loading. A step that takes longer than the budget
+ * only delays its own frame.
+ */
+public class StartupLoader {
+
+    public static final long FRAME_BUDGET_NANOS = 10_000_000; // of each frame spent on startup steps
+    private static final float LOADING_TEXT_DIV = 5f;
+    private static final float LABEL_TEXT_DIV = 40f;
+    private static final float BAR_WIDTH_DIV = 2f;
+    private static final float BAR_HEIGHT_DIV = 40f;
+    private static final int BACKGROUND_COLOUR = 0xFFFFFFEE;
+    private static final int BAR_COLOUR = 0xFF000000;
+
+    /** A unit of startup work. */
+    public interface Step {
+        /** Does some work, returning true once the step is finished; otherwise it is run again. */
+        boolean run();
+
+        /** The fraction of the step done so far. */
+        default float progress() {
+            return 0;
+        }
+    }
+
+    /* A step, with the label shown while it runs and its share of the progress bar */
+    private static class Queued {
+        final String label;
+        final float weight;
+        final Step step;
+
+        Queued(String label, float weight, Step step) {
+            this.label = label;
+            this.weight = weight;
+            this.step = step;
+        }
+    }
+
+    /* Works on one item of a list per run, e.g. one sprite table */
+    private static class EachStep<T> implements Step {
+        final Supplier<List<T>> items;
+        final Consumer<T> work;
+        List<T> list = null; // fetched by the first run, i.e. once the previous steps have run
+        int done = 0;
+
+        EachStep(Supplier<List<T>> items, Consumer<T> work) {
+            this.items = items;
+            this.work = work;
+        }
+
+        @Override
+        public boolean run() {
+            if (list == null) {
+                list = items.get();
+            }
+            if (done < list.size()) {
+                work.accept(list.get(done++));
+            }
+            return done >= list.size();
+        }
+
+        @Override
+        public float progress() {
+            return list == null || list.isEmpty() ? 0 : done / (float) list.size();
+        }
+    }
+
+    private final DontDrown sketch;
+    private final ArrayDeque<Queued> steps = new ArrayDeque<>();
+    private float totalWeight = 0;
+    private float doneWeight = 0;
+    public int readyMillis = -1; // since the sketch started, once every step has finished
+    public int frames = 0; // the number of frames over which startup ran
+
+    public StartupLoader(DontDrown sketch) {
+        this.sketch = sketch;
+    }
+
+    /** Queues a step that is finished after one run. */
+    public void add(String label, float weight, Runnable work) {
+        add(label, weight, () -> {
+            work.run();
+            return true;
+        });
+    }
+
+    /** Queues a step that may be spread across several runs. */
+    public void add(String label, float weight, Step step) {
+        steps.add(new Queued(label, weight, step));
+        totalWeight += weight;
+    }
+
+    /**
+     * Queues a step that works on one item per run. The items are only listed
+     * when the step first runs, so they can be created by earlier steps.
+     */
+    public <T> void addEach(String label, float weight, Supplier<List<T>> items, Consumer<T> work) {
+        add(label, weight, new EachStep<>(items, work));
+    }
+
+    /** Runs steps until the frame's budget is spent. Returns true once every step has finished. */
+    public boolean runSlice() {
+        long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+        frames++;
+        while (!steps.isEmpty()) {
+            Queued next = steps.peek();
+            if (next.step.run()) {
+                steps.poll();
+                doneWeight += next.weight;
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+
+        if (steps.isEmpty() && readyMillis < 0) {
+            readyMillis = sketch.millis();
+        }
+        return steps.isEmpty();
+    }
+
+    /** The fraction of the startup work done so far. */
+    public float progress() {
+        if (totalWeight == 0) {
+            return 1;
+        }
+        Queued current = steps.peek();
+        float partial = current == null ? 0 : current.weight * current.step.progress();
+        return Math.min(1, (doneWeight + partial) / totalWeight);
+    }
+
+    /** Draws the loading screen, with a bar showing the progress and the label of the next step. */
+    public void render() {
+        sketch.background(BACKGROUND_COLOUR);
+        sketch.fill(BAR_COLOUR);
+        sketch.textAlign(PConstants.CENTER, PConstants.CENTER);
+        sketch.textSize(sketch.height / LOADING_TEXT_DIV);
+        sketch.text("Loading...", sketch.width / 2f, sketch.height / 2f);
+
+        float barWidth = sketch.width / BAR_WIDTH_DIV;
+        float barHeight = sketch.height / BAR_HEIGHT_DIV;
+        float barX = (sketch.width - barWidth) / 2f;
+        float barY = sketch.height * 0.7f;
+        sketch.noFill();
+        sketch.stroke(BAR_COLOUR);
+        sketch.strokeWeight(sketch.RSW_DEF);
+        sketch.rect(barX, barY, barWidth, barHeight);
+        sketch.noStroke();
+        sketch.fill(BAR_COLOUR);
+        sketch.rect(barX, barY, barWidth * progress(), barHeight);
+
+        Queued current = steps.peek();
+        if (current != null) {
+            sketch.textSize(sketch.height / LABEL_TEXT_DIV);
+            sketch.text(current.label, sketch.width / 2f, barY + barHeight * 2.5f);
+        }
+    }
+}
@@ -11,6 +11,8 @@ public class StressAndTokenState {
     public static final float STRESS_INCR_RATE = 0.75f;
     public static final float STRESS_DECR_RATE = 0.75f;
     public static final float STRESS_INCR_RANGE_DIV = 2.5f;
+    public static final int STEPS_PER_STRESS = 4; // resolution of the stress LUTs
+    private static final int LUT_SIZE = ABS_MAX_STRESS * STEPS_PER_STRESS + 1;
 
     // level and stress values
     public int tokensAvailable = 0;
@@ -23,15 +25,20 @@ public class StressAndTokenState {
     public float stressRating = stress - stressEffectThreshold;
     public float stressIncrRange;
     public Debuff debuff = Debuff.NONE;
-    public int waveLastSeen = -1; // a frame count
+    public DebuffRule rule = debuff.rule; // the debuff's, bound once per level
+    public int waveLastSeen = -1; // a levelTick()
     private float stressRange = (ABS_MAX_STRESS - stressEffectThreshold);
 
     // pc values
     public float pcThrust;
     public float pcFriction;
     public float pcMinSpeed;
-    public float[] stressHSBColour;
-    public int framesPerResketch;
+    public final float[] stressHSBColour = new float[3]; // updated in place
+    // the PC's colours (ARGB) by colourIndex(stress), so that its tokens can be coloured at draw time
+    public final int[] pcFillColours = new int[LUT_SIZE];
+    public final int[] pcStrokeColours = new int[LUT_SIZE];
+    public int framesPerResketch; // in ticks
+    private float noteDuration = 1;
 
     // calculation values
     public float pcThrustMultiplier;
@@ -48,16 +55,32 @@ public class StressAndTokenState {
     private final float strokeShakinessMultiplier = (Sketcher.RSS_MAX - Sketcher.RSS_MIN) / stressRange;
     private final float framesPerResketchMultiplier = FRAMES_PER_RESKETCH_RANGE / stressRange;
 
+    // every stress-derived value at each step of stress, looked up rather than recalculated
+    private final float[] thrustLut = new float[LUT_SIZE];
+    private final float[] frictionLut = new float[LUT_SIZE];
+    private final float[] minSpeedLut = new float[LUT_SIZE];
+    private final float[] noteDurationLut = new float[LUT_SIZE];
+    private final float[] hueLut = new float[LUT_SIZE];
+    private final float[] satLut = new float[LUT_SIZE];
+    private final float[] lightLut = new float[LUT_SIZE];
+    private final float[] framesPerResketchLut = new float[LUT_SIZE];
+    private final float[] strokeVariabilityLut = new float[LUT_SIZE];
+    private final float[] strokeShakinessLut = new float[LUT_SIZE];
+    private DebuffRule lutRule = null; // the rule the physics LUTs were calculated for; null if not yet calculated
+    private float lookedUpStress = Float.NaN; // the stress of the current values; NaN once the LUTs change
+
     public StressAndTokenState(DontDrown sketch) {
         this.sketch = sketch;
+        calcDrawingLuts();
     }
 
     public void reset(Level level) {
         reset();
+        level.reset(); // may regenerate an endless level's tokens
         tokensAvailable = level.tokens.size();
         debuff = level.debuff;
-        level.reset();
-        update();
+        rule = debuff.rule;
+        lookUp();
     }
 
     /* Reset stress calculation values */
@@ -69,11 +92,15 @@ public class StressAndTokenState {
         minStress = 0;
         waveLastSeen = -1;
         debuff = Debuff.NONE;
-        stressEffectThreshold = debuff.equals(Debuff.STRESS_MOTIVATED) ? 35 : DEFAULT_STRESS_EFFECT_THRESHOLD;
+        rule = debuff.rule;
+        stressEffectThreshold = DEFAULT_STRESS_EFFECT_THRESHOLD;
         AbstractDrawable.stressIndex = minStress;
         stressRange = (ABS_MAX_STRESS - stressEffectThreshold);
         stressIncrRange = sketch.height / STRESS_INCR_RANGE_DIV;
-        update();
+        calcDrawingLuts();
+        lutRule = null;
+        // not update(), as the PC and the wave may not be back at the start yet
+        lookUp();
     }
 
     /**
@@ -82,61 +109,94 @@ public class StressAndTokenState {
     public void pcCalcs() {
         this.pcThrustMultiplier = (sketch.pc.maxHorizontalThrust - sketch.pc.minHorizontalThrust) / stressRange;
         this.pcFrictionMultiplier = (sketch.pc.maxHorizontalFriction - sketch.pc.minHorizontalFriction) / stressRange;
+        lutRule = null;
     }
 
-    /* Sets the current stress-based thrust magnitude */
-    private void pcThrust() {
-        if (debuff.equals(Debuff.STRESS_MOTIVATED) || stress >= stressEffectThreshold) {
-            pcThrust = sketch.pc.minHorizontalThrust + stressRating * pcThrustMultiplier;
-        } else {
-            pcThrust = sketch.pc.minHorizontalThrust;
+    /*
+     * Fills the LUTs of the PC's physics and the music for the current debuff's
+     * rule.
+     */
+    private void calcPhysicsLuts() {
+        for (int i = 0; i < LUT_SIZE; i++) {
+            float stress = i / (float) STEPS_PER_STRESS;
+            float rating = rule.thrustRating(stress, stressEffectThreshold);
+
+            thrustLut[i] = sketch.pc.minHorizontalThrust + rating * pcThrustMultiplier;
+            frictionLut[i] = sketch.pc.maxHorizontalFriction - rating * pcFrictionMultiplier;
+            minSpeedLut[i] = frictionLut[i] * PlayerCharacter.I_MASS * sketch.pc.incr;
+            noteDurationLut[i] = 1 - 0.65f * (rule.musicRating(stress, stressEffectThreshold) / stressRange);
         }
+        lutRule = rule;
+        lookedUpStress = Float.NaN;
     }
 
-    /* Sets the current stress-based friction magnitude */
-    private void pcFriction() {
-        if (debuff.equals(Debuff.STRESS_MOTIVATED) || stress >= stressEffectThreshold) {
-            pcFriction = sketch.pc.maxHorizontalFriction - stressRating * pcFrictionMultiplier;
-
-        } else {
-            pcFriction = sketch.pc.maxHorizontalFriction;
+    /*
+     * Fills the LUTs of the PC's colours and of hand-drawing for the current
+     * stress effect threshold. Sprites are generated from the same LUTs by
+     * styleFor(), so they match what the PC is drawn with.
+     */
+    private void calcDrawingLuts() {
+        for (int i = 0; i < LUT_SIZE; i++) {
+            float rating = Math.max(0, i / (float) STEPS_PER_STRESS - stressEffectThreshold);
+            hueLut[i] = PlayerCharacter.PC_MIN_HUE + rating * stressHueMultiplier;
+            satLut[i] = PlayerCharacter.PC_MIN_SAT + rating * stressSatMultiplier;
+            lightLut[i] = PlayerCharacter.PC_MIN_LIGHT + rating * stressLightMultiplier;
+            framesPerResketchLut[i] = FRAMES_PER_RESKETCH_MAX - rating * framesPerResketchMultiplier;
+            strokeVariabilityLut[i] = Sketcher.RSV_MIN + rating * strokeVariabilityMultiplier;
+            strokeShakinessLut[i] = Sketcher.RSS_MIN + rating * strokeShakinessMultiplier;
+
+            pcFillColours[i] = HandDrawer.hsbColour(hueLut[i], satLut[i], lightLut[i], PlayerCharacter.PC_FILL_ALPHA);
+            pcStrokeColours[i] = HandDrawer.hsbColour(hueLut[i], satLut[i],
+                    lightLut[i] - PlayerCharacter.PC_MIN_LIGHT / 2, PlayerCharacter.PC_STROKE_ALPHA);
         }
+        lookedUpStress = Float.NaN;
     }
 
-    /* The speed at which the PC comes to rest. */
-    private void pcMinSpeed() {
-        pcMinSpeed = pcFriction * PlayerCharacter.I_MASS * sketch.pc.incr;
+    /* Interpolates a LUT at a stress value */
+    private static float lookUp(float[] lut, float stress) {
+        float position = Math.max(0, Math.min(ABS_MAX_STRESS, stress)) * STEPS_PER_STRESS;
+        int index = (int) position;
+        float fraction = position - index;
+        return fraction == 0 ? lut[index] : lut[index] + (lut[index + 1] - lut[index]) * fraction;
     }
 
-    /** Converts a stress value into a colour for the PC's and stress bar's token generation. */
-    public void calcStressHSBColour() {
-        if (stress >= stressEffectThreshold) {
-            stressRating = stress - stressEffectThreshold;
-            float[] hsb = new float[3];
-            hsb[0] = PlayerCharacter.PC_MIN_HUE + stressRating * stressHueMultiplier;
-            hsb[1] = PlayerCharacter.PC_MIN_SAT + stressRating * stressSatMultiplier;
-            hsb[2] = PlayerCharacter.PC_MIN_LIGHT + stressRating * stressLightMultiplier;
-            stressHSBColour = hsb;
-        } else {
-            stressHSBColour = new float[] { PlayerCharacter.PC_MIN_HUE, PlayerCharacter.PC_MIN_SAT,
-                    PlayerCharacter.PC_MIN_LIGHT };
+    /**
+     * Sets the PC's physics, the stress colour, the resketch rate and the note
+     * duration for the current stress, unless they are already set for it.
+     */
+    public void lookUp() {
+        if (lutRule != rule && sketch.pc != null) {
+            calcPhysicsLuts();
+        }
+        if (stress == lookedUpStress) {
+            return;
         }
 
+        if (lutRule != null) {
+            pcThrust = lookUp(thrustLut, stress);
+            pcFriction = lookUp(frictionLut, stress);
+            pcMinSpeed = lookUp(minSpeedLut, stress);
+            noteDuration = lookUp(noteDurationLut, stress);
+        }
+        stressHSBColour[0] = lookUp(hueLut, stress);
+        stressHSBColour[1] = lookUp(satLut, stress);
+        stressHSBColour[2] = lookUp(lightLut, stress);
+        framesPerResketch = (int) lookUp(framesPerResketchLut, stress);
+        lookedUpStress = lutRule != null ? stress : Float.NaN;
     }
 
-    /** Calculates a stress-based value of sketchiness for token generation */
-    public void sketchiness() {
-        if (stress >= stressEffectThreshold) {
-            stressRating = stress - stressEffectThreshold;
-            framesPerResketch = (int) (FRAMES_PER_RESKETCH_MAX - stressRating * framesPerResketchMultiplier);
-            sketch.roughStrokeVariabilityRate = Sketcher.RSV_MIN + stressRating * strokeVariabilityMultiplier;
-            sketch.roughStrokeShakiness = (int) (Sketcher.RSS_MIN + stressRating * strokeShakinessMultiplier);
-
-        } else {
-            framesPerResketch = FRAMES_PER_RESKETCH_MAX;
-            sketch.roughStrokeVariabilityRate = Sketcher.RSV_MIN;
-            sketch.roughStrokeShakiness = Sketcher.RSS_MIN;
-        }
+    /**
+     * The sketchiness of tokens generated for a stress value. Doesn't change the
+     * current state, so tokens for any stress can be generated at any time.
+     */
+    public HandDrawStyle styleFor(float stress) {
+        return new HandDrawStyle(sketch.RSW_DEF, lookUp(strokeVariabilityLut, stress),
+                (int) lookUp(strokeShakinessLut, stress));
+    }
+
+    /** The index of a stress value in the colour LUTs. */
+    public static int colourIndex(float stress) {
+        return Math.max(0, Math.min(LUT_SIZE - 1, Math.round(stress * STEPS_PER_STRESS)));
     }
 
     /** Increments the collected token count, and updates the token accordingly. */
@@ -152,31 +212,12 @@ public class StressAndTokenState {
             return;
         }
 
-        float waveDistance = Math.abs(sketch.risingWave.pos.y - sketch.pc.pos.y);
-
-        if (debuff.equals(Debuff.PANIC_PRONE) && sketch.frameCount % 300 < 100) {
-            waveDistance = Math.min(waveDistance, stressIncrRange / 2);
-        }
-
-        else if (debuff.equals(Debuff.TUNNEL_VISION)) {
-            if (sketch.risingWave.pos.y > sketch.pc.pos.y + sketch.pc.jumpHeight) {
-                if (sketch.frameCount < waveLastSeen + stress * 2) {
-                    // don't destress as soon as the wave is out of sight
-                    waveDistance = stressIncrRange;
-                } else {
-                    // destress if the wave has been out of sight long enough
-                    waveDistance = Math.max(waveDistance, stressIncrRange * 1.5f);
-                }
-            } else {
-                // when the wave is visible, the rate of stress increase is extra high
-                waveDistance = waveDistance / 2f;
-                waveLastSeen = sketch.frameCount;
-            }
-        }
+        float waveDistance = rule.waveDistance(sketch, this,
+                Math.abs(sketch.risingWave.pos.y - sketch.pc.pos.y));
 
         if (waveDistance <= stressIncrRange) {
             stress += STRESS_DECR_RATE * ((stressIncrRange - waveDistance) / stressIncrRange);
-        } else if (!debuff.equals(Debuff.CANT_UNWIND)) {
+        } else if (rule.canUnwind()) {
             stress -= Math.min(STRESS_DECR_RATE, STRESS_DECR_RATE * (waveDistance - stressIncrRange) / stressIncrRange);
         }
 
@@ -186,9 +227,7 @@ public class StressAndTokenState {
             stress = minStress;
         }
 
-        if (debuff.equals(Debuff.LACK_CONTRAST)) {
-            // don't update stress index for drawables
-        } else {
+        if (rule.drawsStress()) {
             AbstractDrawable.stressIndex = (int) stress;
         }
 
@@ -197,21 +236,12 @@ public class StressAndTokenState {
     }
 
     public float getNoteDuration() {
-        if (!debuff.equals(Debuff.LACK_CONTRAST)
-                && (stress >= stressEffectThreshold || debuff.equals(Debuff.STRESS_MOTIVATED))) {
-            return 1 - 0.65f * (stressRating / stressRange);
-        } else {
-            return 1;
-        }
+        return noteDuration;
     }
 
     public void update() {
         updateStress();
-        pcThrust();
-        pcFriction();
-        pcMinSpeed();
-        calcStressHSBColour();
-        sketchiness();
+        lookUp();
         oldStress = stress;
     }
 }
@@ -1,5 +1,6 @@
+import java.util.SplittableRandom;
+
 import processing.core.PConstants;
-import processing.core.PShape;
 
 /**
  * The collectable token objects. Not to be confused with the sprites/shapes of
@@ -13,8 +14,9 @@ public class Token extends AbstractCollectable {
     private static final float T_HEIGHT_DIV = 40f;
     private static final int T_BOUNCE_FRAMES = 30;
 
-    private static PShape[][] staticTokens = null;
+    private static volatile SpriteTable staticTokens = null; // may be first needed by the arcade generator thread
     private static float bounceIncr;
+    public static float bounceHeight;
     public static float height;
     public static float width;
 
@@ -22,12 +24,15 @@ public class Token extends AbstractCollectable {
 
     public Token(DontDrown sketch, float x, float y) {
         super(sketch, (staticTokens == null ? generateTokens(sketch) : staticTokens), x, y);
-        pos.y -= bounceIncr * (sketch.frameCount % T_BOUNCE_FRAMES);
+        pos.y -= bounceIncr * (sketch.levelTick() % T_BOUNCE_FRAMES);
+        setRasterBounds(-width / 2 - rasterPadding(), -height / 2 - rasterPadding(), width + 2 * rasterPadding(),
+                height + 2 * rasterPadding());
     }
 
     public void reset() {
         resetAC();
-        pos.y -= bounceIncr * (sketch.frameCount % T_BOUNCE_FRAMES);
+        movingDown = false;
+        pos.y -= bounceIncr * (sketch.levelTick() % T_BOUNCE_FRAMES);
     }
 
     /* Bobs up and down */
@@ -35,7 +40,7 @@ public class Token extends AbstractCollectable {
         if (collected) {
             return;
         }
-        if (sketch.frameCount % T_BOUNCE_FRAMES == 0) {
+        if (sketch.levelTick() % T_BOUNCE_FRAMES == 0) {
             movingDown = !movingDown;
         }
 
@@ -46,35 +51,31 @@ public class Token extends AbstractCollectable {
         }
     }
 
-    protected static PShape[][] generateTokens(DontDrown sketch) {
-        staticTokens = new PShape[StressAndTokenState.ABS_MAX_STRESS + 1][VARIANT_TOKENS];
+    protected static synchronized SpriteTable generateTokens(DontDrown sketch) {
+        if (staticTokens != null) {
+            return staticTokens; // generated by another thread since the caller checked
+        }
 
         height = sketch.width / T_HEIGHT_DIV;
-        width = height + sketch.random(-sketch.RSW_DEF, sketch.RSW_DEF);
-        float bounceHeight = height / 4;
+        // seeded like the tokens' other imperfections (and safe off the animation thread)
+        width = height + (2 * (float) new SplittableRandom(sketch.jitterSeed).nextDouble() - 1) * sketch.RSW_DEF;
+        bounceHeight = height / 4;
         bounceIncr = (bounceHeight / T_BOUNCE_FRAMES);
 
-        sketch.colorModeRGB();
-        sketch.roughStrokeWeight = sketch.RSW_DEF;
-
-        for (int i = 0; i <= StressAndTokenState.ABS_MAX_STRESS; i++) {
-            sketch.levelState.stress = i;
-            sketch.levelState.sketchiness();
-
-            for (int j = 0; j < VARIANT_TOKENS; j++) {
-                staticTokens[i][j] = sketch.handDraw(PConstants.QUAD, T_STROKE_COLOUR, T_FILL_COLOUR,
-                        0, -height / 2,
-                        width / 2, 0,
-                        0, height / 2,
-                        -width / 2, 0);
-            }
-        }
+        staticTokens = SpriteTable.shared(sketch, "token", (drawer, variant) -> {
+            return drawer.mesh(drawer.handDraw(PConstants.QUAD, T_STROKE_COLOUR, T_FILL_COLOUR,
+                    0, -height / 2,
+                    width / 2, 0,
+                    0, height / 2,
+                    -width / 2, 0));
+        });
 
         return staticTokens;
     }
 
     protected boolean onScreen() {
-        return pos.y - height <= sketch.height && pos.y + height >= height;
+        float screenY = pos.y + sketch.level.viewOffset();
+        return screenY - height <= sketch.height && screenY + height >= height;
     }
 
 }
@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Level elements sorted from the bottom of the level to the top. Their
+ * heights are held in a primitive array, so that the elements within a
+ * vertical band can be found with a binary search rather than a full scan.
+ *
+ * Heights are recorded when elements are added, so elements that move (e.g.
+ * bobbing tokens) should be queried with a margin that covers their movement.
+ *
+ * Elements can be appended above and trimmed from below, so that the index can
+ * follow a level that is generated as it is climbed.
+ */
+public class VerticalIndex<T extends AbstractDrawable> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private Object[] elements;
+    private float[] ys; // descending, i.e. bottom to top
+    private int start = 0; // index of the lowest element that has not been trimmed
+    private int end = 0;
+
+    public VerticalIndex(List<T> unsorted) {
+        elements = new Object[Math.max(MIN_CAPACITY, unsorted.size())];
+        ys = new float[elements.length];
+        append(unsorted);
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int i) {
+        return (T) elements[start + i];
+    }
+
+    /** Returns the index of the lowest element at or above y, or size() if there is none. */
+    public int lowestAtOrAbove(float y) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ys[mid] > y) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - start;
+    }
+
+    /** Returns the index of the lowest element strictly above y, or size() if there is none. */
+    public int lowestAbove(float y) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ys[mid] >= y) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - start;
+    }
+
+    /* Makes room for n more elements at the end, reclaiming trimmed space first */
+    private void ensureCapacity(int n) {
+        if (end + n <= elements.length) {
+            return;
+        }
+        int size = size();
+        if (size + n > elements.length) {
+            int capacity = Math.max(elements.length * 2, size + n);
+            elements = Arrays.copyOfRange(elements, start, start + capacity);
+            ys = Arrays.copyOfRange(ys, start, start + capacity);
+        } else {
+            System.arraycopy(elements, start, elements, 0, size);
+            System.arraycopy(ys, start, ys, 0, size);
+            Arrays.fill(elements, size, end, null);
+        }
+        start = 0;
+        end = size;
+    }
+
+    /**
+     * Adds elements to the index. Elements above every existing element (e.g. a
+     * newly generated chunk of level) are appended without moving the others.
+     */
+    public void append(List<T> added) {
+        ArrayList<T> sorted = new ArrayList<>(added);
+        sorted.sort((o1, o2) -> Float.compare(o2.pos.y, o1.pos.y));
+        ensureCapacity(sorted.size());
+
+        for (T element : sorted) {
+            float y = element.pos.y;
+            int i = start + lowestAbove(y);
+            if (i < end) {
+                // out of order, so shift the higher elements up
+                System.arraycopy(elements, i, elements, i + 1, end - i);
+                System.arraycopy(ys, i, ys, i + 1, end - i);
+            }
+            elements[i] = element;
+            ys[i] = y;
+            end++;
+        }
+    }
+
+    /** Removes every element below y. */
+    public void trimBelow(float y) {
+        while (start < end && ys[start] > y) {
+            elements[start++] = null;
+        }
+    }
+}
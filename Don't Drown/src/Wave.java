@@ -1,63 +1,135 @@
-import processing.core.PShape;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PMatrix2D;
 import processing.core.PVector;
 
-public class Wave extends AbstractDrawable {
+/**
+ * The rising wave. Unlike the other drawables it has no tokens: its sine
+ * profile and hand-drawn crest are computed each frame into arrays allocated
+ * once, so that the wave can slosh continuously, and only the part above the
+ * bottom of the screen is drawn. The crest's weights are re-jittered at the
+ * current stress's resketch rate. Both are timed in ticks, so the wave moves
+ * at the same speed at any frame rate.
+ */
+public class Wave {
 
     public static final float WAVE_INIT_HEIGHT_MOD_DIV = 20f;
     public static final float WAVE_SECTION_DEPTH_DIV = 160f;
     public static final int WAVE_SECTIONS = 12;
     public static final int WAVE_VERTICES_PER_SECTION = 6;
-    public static final int WAVE_RISE_RATE_DIV = 12; 
+    public static final int WAVE_RISE_RATE_DIV = 12;
 
     private static final int FILL_COLOUR = 0xFF99BBFF;
     private static final int STROKE_COLOUR = 0xFF0050EF;
+    private static final int VERTICES = WAVE_SECTIONS * WAVE_VERTICES_PER_SECTION;
+    private static final float PERIOD = 2f * WAVE_VERTICES_PER_SECTION; // in vertices
+    private static final float PHASE_PER_RESKETCH = 2f; // in vertices
+    private static final float PHASE_RANGE = 16f; // the wave sloshes back and forth over this many vertices
+    private static final float MAX_STEP_TICKS = 5; // the most the wave moves between renders, e.g. after a pause
 
-    private static PShape[][] staticTokens = null;
     public static float waveInitHeight;
+    private static float waveSectionDepth;
+
+    private final DontDrown sketch;
+    private final StressAndTokenState state;
+    private final float redrawOffset; // in ticks
+    private final SplittableRandom random;
+
+    public PVector pos; // position
+
+    private final float[] profile = new float[2 * VERTICES]; // x, y pairs relative to pos
+    private final float[] weights = new float[VERTICES]; // of the crest at each vertex
+    private final PMatrix2D view = new PMatrix2D(); // the current transform, to find the bottom of the screen
+    private float phase = 0; // in vertices
+    private float phaseDirection = -1;
+    private float lastRender = -1; // the animation time of the last render, in ticks
+    private float nextResketch = -1; // the animation time at which the weights are next jittered
 
     protected Wave(DontDrown sketch) {
-        super(sketch, (staticTokens == null ? generateTokens(sketch) : staticTokens));
-        pos = new PVector(0, waveInitHeight);
-    }
+        this.sketch = sketch;
+        state = sketch.levelState;
+        redrawOffset = ThreadLocalRandom.current().nextInt(StressAndTokenState.FRAMES_PER_RESKETCH_MIN);
+        random = new SplittableRandom(sketch.jitterSeed);
 
-    protected static PShape[][] generateTokens(DontDrown sketch) {
-        staticTokens = new PShape[StressAndTokenState.ABS_MAX_STRESS + 1][VARIANT_TOKENS];
         waveInitHeight = sketch.height + sketch.width / WAVE_INIT_HEIGHT_MOD_DIV;
-        float waveSectionDepth = sketch.width / WAVE_SECTION_DEPTH_DIV;
-        float waveDepth = sketch.height;
+        waveSectionDepth = sketch.width / WAVE_SECTION_DEPTH_DIV;
+        pos = new PVector(0, waveInitHeight);
+    }
 
-        sketch.colorModeRGB();
-        sketch.roughStrokeWeight = sketch.RSW_DEF;
+    /* Moves the profile along, and re-jitters the crest when it is time to resketch */
+    private void update() {
+        float now = sketch.animationTicks();
+        // the clock changes between levels and menus, so a step may be negative or long
+        float step = lastRender < 0 ? 0 : Math.max(0, Math.min(MAX_STEP_TICKS, now - lastRender));
+        lastRender = now;
 
-        for (int j = 0; j < VARIANT_TOKENS / 2; j++) {
-            for (int i = 0; i <= StressAndTokenState.ABS_MAX_STRESS; i++) {
-                sketch.levelState.stress = i;
-                sketch.levelState.sketchiness();
+        phase += phaseDirection * step * PHASE_PER_RESKETCH / state.framesPerResketch;
+        if (Math.abs(phase) >= PHASE_RANGE) {
+            // bounce back by as far as the step overshot, so that the phase doesn't depend on the step size
+            phase = Math.signum(phase) * (2 * PHASE_RANGE - Math.abs(phase));
+            phaseDirection = -phaseDirection;
+        }
 
-                staticTokens[i][j] = sketch.handDraw(Sketcher.WAVE, STROKE_COLOUR, FILL_COLOUR,
-                        sketch.width, waveDepth, WAVE_SECTIONS, waveSectionDepth, WAVE_VERTICES_PER_SECTION,
-                        j * 10);
-            }
+        float xIncr = sketch.width / (VERTICES - 1f);
+        for (int i = 0; i < VERTICES; i++) {
+            float offset = ((i + phase) % PERIOD + PERIOD) % PERIOD;
+            profile[2 * i] = i * xIncr;
+            profile[2 * i + 1] = waveSectionDepth * PApplet.sin(PConstants.TAU * offset / PERIOD);
         }
-        for (int j = VARIANT_TOKENS / 2; j < VARIANT_TOKENS; j++) {
-            for (int i = 0; i <= StressAndTokenState.ABS_MAX_STRESS; i++) {
-                sketch.levelState.stress = i;
-                sketch.levelState.sketchiness();
-
-                staticTokens[i][j] = sketch.handDraw(Sketcher.WAVE, STROKE_COLOUR, FILL_COLOUR,
-                        sketch.width, waveDepth, WAVE_SECTIONS, waveSectionDepth, WAVE_VERTICES_PER_SECTION,
-                        -(j + 1 - VARIANT_TOKENS) * 10);
+
+        if (nextResketch < 0 || now >= nextResketch || now + state.framesPerResketch < nextResketch) {
+            HandDrawStyle style = state.styleFor(state.stress);
+            float variability = style.roughStrokeWeight * style.roughStrokeVariabilityRate;
+            weights[0] = style.roughStrokeWeight;
+            for (int i = 1; i < VERTICES; i++) {
+                weights[i] = style.roughStrokeWeight
+                        + variability * (2 * (float) random.nextDouble() - 1);
             }
+            // (offset, so that the waves don't resketch together)
+            nextResketch = now + state.framesPerResketch - (nextResketch < 0 ? redrawOffset : 0);
         }
-
-        return staticTokens;
-    }
-
-    protected boolean onScreen() {
-        return true;
     }
 
     public void render() {
-        renderAD();
+        // the bottom of the screen, relative to the wave
+        sketch.getMatrix(view);
+        float bottom = sketch.height - view.m12 - pos.y;
+        if (bottom < -2 * waveSectionDepth) {
+            return; // below the screen
+        }
+        bottom = Math.max(bottom, waveSectionDepth);
+        update();
+
+        // the body, down to the bottom of the screen
+        sketch.fill(FILL_COLOUR);
+        sketch.beginShape();
+        for (int i = 0; i < VERTICES; i++) {
+            sketch.vertex(pos.x + profile[2 * i], pos.y + profile[2 * i + 1]);
+        }
+        sketch.vertex(pos.x + sketch.width, pos.y + bottom);
+        sketch.vertex(pos.x, pos.y + bottom);
+        sketch.endShape(PConstants.CLOSE);
+
+        // the crest, as a line that thickens and thins along the profile
+        sketch.fill(STROKE_COLOUR);
+        sketch.beginShape();
+        for (int i = 0; i < VERTICES - 1; i++) {
+            float dx = profile[2 * i] - profile[2 * i + 2];
+            float dy = profile[2 * i + 1] - profile[2 * i + 3];
+            float length = PApplet.sqrt(dx * dx + dy * dy);
+            // the segment's normal, pointing down into the body
+            float nx = -dy / length;
+            float ny = dx / length;
+            sketch.vertex(pos.x + profile[2 * i] - nx * weights[i], pos.y + profile[2 * i + 1] - ny * weights[i]);
+            sketch.vertex(pos.x + profile[2 * i + 2] - nx * weights[i + 1],
+                    pos.y + profile[2 * i + 3] - ny * weights[i + 1]);
+        }
+        for (int i = VERTICES - 1; i >= 0; i--) {
+            sketch.vertex(pos.x + profile[2 * i], pos.y + profile[2 * i + 1]);
+        }
+        sketch.endShape(PConstants.CLOSE);
     }
 }
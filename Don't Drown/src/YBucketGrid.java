@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A broadphase index that buckets elements into horizontal bands (cells) of
+ * a fixed height. An element is added to every cell that its vertical span
+ * overlaps, so a query only has to look at the cells that overlap the queried
+ * span, regardless of how tall the level is.
+ */
+public class YBucketGrid<T> {
+
+    /* The elements overlapping one band */
+    private static class Cell {
+        Object[] elements = new Object[4];
+        float[] tops = new float[4]; // top of each element's span, used to report it only once
+        int size = 0;
+
+        void add(Object element, float top) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size * 2);
+                tops = Arrays.copyOf(tops, size * 2);
+            }
+            elements[size] = element;
+            tops[size] = top;
+            size++;
+        }
+    }
+
+    private final float cellHeight;
+    private Cell[] cells = new Cell[0];
+    private int minKey = 0; // key of cells[0]
+
+    public YBucketGrid(float cellHeight) {
+        this.cellHeight = cellHeight;
+    }
+
+    private int key(float y) {
+        return (int) Math.floor(y / cellHeight);
+    }
+
+    /* Grows the cell array so that it covers the given keys */
+    private void cover(int fromKey, int toKey) {
+        if (cells.length == 0) {
+            cells = new Cell[toKey - fromKey + 1];
+            minKey = fromKey;
+        } else if (fromKey < minKey || toKey >= minKey + cells.length) {
+            int newMinKey = Math.min(minKey, fromKey);
+            int newMaxKey = Math.max(minKey + cells.length - 1, toKey);
+            Cell[] grown = new Cell[newMaxKey - newMinKey + 1];
+            System.arraycopy(cells, 0, grown, minKey - newMinKey, cells.length);
+            cells = grown;
+            minKey = newMinKey;
+        }
+    }
+
+    /**
+     * Adds an element spanning from top to bottom (in level coordinates, so top
+     * <= bottom).
+     */
+    public void add(T element, float top, float bottom) {
+        int fromKey = key(top);
+        int toKey = key(bottom);
+        cover(fromKey, toKey);
+        for (int k = fromKey; k <= toKey; k++) {
+            Cell cell = cells[k - minKey];
+            if (cell == null) {
+                cell = new Cell();
+                cells[k - minKey] = cell;
+            }
+            cell.add(element, top);
+        }
+    }
+
+    /** Removes every element. */
+    public void clear() {
+        cells = new Cell[0];
+        minKey = 0;
+    }
+
+    /**
+     * Removes the cells that are entirely below y, along with the elements that
+     * are only within those cells.
+     */
+    public void removeBelow(float y) {
+        int keep = key(y) - minKey + 1; // the number of cells at or above y's cell
+        if (keep <= 0) {
+            clear();
+        } else if (keep < cells.length) {
+            cells = Arrays.copyOf(cells, keep);
+        }
+    }
+
+    /**
+     * Replaces the contents of out with every element whose span overlaps the
+     * span from top to bottom. Each element is reported once.
+     */
+    @SuppressWarnings("unchecked")
+    public void query(float top, float bottom, ArrayList<T> out) {
+        out.clear();
+        int fromKey = Math.max(key(top), minKey);
+        int toKey = Math.min(key(bottom), minKey + cells.length - 1);
+        for (int k = fromKey; k <= toKey; k++) {
+            Cell cell = cells[k - minKey];
+            if (cell == null) {
+                continue;
+            }
+            for (int i = 0; i < cell.size; i++) {
+                // only report an element from the first cell shared by its span and the query
+                if (key(Math.max(cell.tops[i], top)) == k) {
+                    out.add((T) cell.elements[i]);
+                }
+            }
+        }
+    }
+}